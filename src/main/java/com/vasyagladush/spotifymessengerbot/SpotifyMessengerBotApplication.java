@@ -3,28 +3,40 @@ package com.vasyagladush.spotifymessengerbot;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
+import org.springframework.scheduling.annotation.EnableScheduling;
 import org.telegram.telegrambots.meta.api.methods.updates.SetWebhook;
 import org.telegram.telegrambots.meta.exceptions.TelegramApiException;
 
 import com.vasyagladush.spotifymessengerbot.messengers.telegram.TelegramBot;
+import com.vasyagladush.spotifymessengerbot.messengers.telegram.TelegramUpdatePoller;
 
 import jakarta.annotation.PostConstruct;
 
 @SpringBootApplication
+@EnableScheduling
 public class SpotifyMessengerBotApplication {
 	private static final Logger logger = LogManager.getLogger(TelegramBot.class);
 
 	@Autowired
 	private TelegramBot telegramBot;
 
+	@Value("${TELEGRAM_INGESTION_MODE:webhook}")
+	private String telegramIngestionMode;
+
 	public static void main(String[] args) {
 		SpringApplication.run(SpotifyMessengerBotApplication.class, args);
 	}
 
 	@PostConstruct
 	public void registerTelegramBot() {
+		if (TelegramUpdatePoller.INGESTION_MODE.equals(telegramIngestionMode)) {
+			// The poller removes the webhook before it starts
+			logger.info("Telegram Bot receives updates by polling, webhook is not registered");
+			return;
+		}
 		try {
 			logger.info("Starting Telegram Bot set up");
 			SetWebhook setWebhook = SetWebhook.builder().url(telegramBot.getWebhookBaseUrl())
@@ -0,0 +1,125 @@
+package com.vasyagladush.spotifymessengerbot.caches;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.function.ToLongFunction;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+
+/**
+ * Size-bounded in-memory cache that evicts the least recently used entry when
+ * full and drops entries once their own time to live has passed.
+ * Publishes the standard Micrometer cache meters tagged with the cache name.
+ */
+public class ExpiringLruCache<K, V> {
+    private final int maxSize;
+    private final LinkedHashMap<K, Entry<V>> entries;
+    private final ToLongFunction<V> weigher;
+    private long totalWeight;
+
+    private final Counter hitCounter;
+    private final Counter missCounter;
+    private final Counter putCounter;
+    private final Counter evictionCounter;
+
+    public ExpiringLruCache(final String name, final int maxSize, final MeterRegistry meterRegistry) {
+        this(name, maxSize, null, meterRegistry);
+    }
+
+    /**
+     * @param weigher estimates the memory taken by a value in bytes, published as
+     *                the cache.estimated.bytes gauge; weights are taken when values
+     *                are put
+     */
+    public ExpiringLruCache(final String name, final int maxSize, final ToLongFunction<V> weigher,
+            final MeterRegistry meterRegistry) {
+        this.maxSize = maxSize;
+        // Access order makes the eldest entry the least recently used one
+        this.entries = new LinkedHashMap<>(16, 0.75f, true);
+        this.weigher = weigher;
+
+        this.hitCounter = Counter.builder("cache.gets").tag("cache", name).tag("result", "hit")
+                .register(meterRegistry);
+        this.missCounter = Counter.builder("cache.gets").tag("cache", name).tag("result", "miss")
+                .register(meterRegistry);
+        this.putCounter = Counter.builder("cache.puts").tag("cache", name).register(meterRegistry);
+        this.evictionCounter = Counter.builder("cache.evictions").tag("cache", name).register(meterRegistry);
+        Gauge.builder("cache.size", this, ExpiringLruCache::size).tag("cache", name).register(meterRegistry);
+        if (weigher != null) {
+            Gauge.builder("cache.estimated.bytes", this, ExpiringLruCache::getTotalWeight).tag("cache", name)
+                    .register(meterRegistry);
+        }
+    }
+
+    /**
+     * @return the cached value, or null if there is none or it has expired
+     */
+    public synchronized V get(final K key) {
+        final Entry<V> entry = this.entries.get(key);
+        if (entry == null) {
+            this.missCounter.increment();
+            return null;
+        }
+        if (entry.isExpired(System.currentTimeMillis())) {
+            this.remove(key);
+            this.evictionCounter.increment();
+            this.missCounter.increment();
+            return null;
+        }
+        this.hitCounter.increment();
+        return entry.value;
+    }
+
+    public synchronized void put(final K key, final V value, final long timeToLiveMilliseconds) {
+        final long weight = this.weigher == null ? 0 : this.weigher.applyAsLong(value);
+        final Entry<V> replacedEntry = this.entries.put(key,
+                new Entry<>(value, System.currentTimeMillis() + timeToLiveMilliseconds, weight));
+        this.totalWeight += weight - (replacedEntry == null ? 0 : replacedEntry.weight);
+        this.putCounter.increment();
+        // Expired entries are dropped when they are read, so only the least recently
+        // used entries have to be evicted here
+        final Iterator<Entry<V>> iterator = this.entries.values().iterator();
+        while (this.entries.size() > this.maxSize && iterator.hasNext()) {
+            this.totalWeight -= iterator.next().weight;
+            iterator.remove();
+            this.evictionCounter.increment();
+        }
+    }
+
+    public synchronized void invalidate(final K key) {
+        this.remove(key);
+    }
+
+    public synchronized int size() {
+        return this.entries.size();
+    }
+
+    public synchronized long getTotalWeight() {
+        return this.totalWeight;
+    }
+
+    private void remove(final K key) {
+        final Entry<V> removedEntry = this.entries.remove(key);
+        if (removedEntry != null) {
+            this.totalWeight -= removedEntry.weight;
+        }
+    }
+
+    private static class Entry<V> {
+        private final V value;
+        private final long expiresAt;
+        private final long weight;
+
+        Entry(V value, long expiresAt, long weight) {
+            this.value = value;
+            this.expiresAt = expiresAt;
+            this.weight = weight;
+        }
+
+        boolean isExpired(long now) {
+            return now >= this.expiresAt;
+        }
+    }
+}
@@ -0,0 +1,68 @@
+package com.vasyagladush.spotifymessengerbot.concurrency;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+
+/**
+ * Opens after failureThreshold consecutive failures and then rejects calls for
+ * openMilliseconds. After that a single trial call is let through: its success
+ * closes the circuit, its failure opens it again.
+ */
+public class CircuitBreaker {
+    public enum State {
+        CLOSED, OPEN, HALF_OPEN
+    }
+
+    private final int failureThreshold;
+    private final long openMilliseconds;
+
+    private State state = State.CLOSED;
+    private int consecutiveFailures;
+    private long openedAt;
+
+    public CircuitBreaker(final String name, final int failureThreshold, final long openMilliseconds,
+            final MeterRegistry meterRegistry) {
+        this.failureThreshold = failureThreshold;
+        this.openMilliseconds = openMilliseconds;
+
+        Gauge.builder("circuitbreaker.state", this, circuitBreaker -> circuitBreaker.getState().ordinal())
+                .tag("name", name).description("0 - closed, 1 - open, 2 - half open").register(meterRegistry);
+    }
+
+    /**
+     * @return false if the call must not be made; a caller given true must report
+     *         the outcome with {@link #onSuccess()} or {@link #onFailure()}
+     */
+    public synchronized boolean tryAcquire() {
+        switch (this.state) {
+            case CLOSED:
+                return true;
+            case OPEN:
+                if (System.currentTimeMillis() - this.openedAt < this.openMilliseconds) {
+                    return false;
+                }
+                this.state = State.HALF_OPEN;
+                return true;
+            default:
+                // The trial call is still running
+                return false;
+        }
+    }
+
+    public synchronized void onSuccess() {
+        this.consecutiveFailures = 0;
+        this.state = State.CLOSED;
+    }
+
+    public synchronized void onFailure() {
+        ++this.consecutiveFailures;
+        if (this.state == State.HALF_OPEN || this.consecutiveFailures >= this.failureThreshold) {
+            this.state = State.OPEN;
+            this.openedAt = System.currentTimeMillis();
+        }
+    }
+
+    public synchronized State getState() {
+        return this.state;
+    }
+}
@@ -0,0 +1,95 @@
+package com.vasyagladush.spotifymessengerbot.concurrency;
+
+import java.io.IOException;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.springframework.util.function.ThrowingSupplier;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+
+/**
+ * Coalesces concurrent calls with the same key: the first caller runs the
+ * loader on its own thread, callers arriving while it is running wait for it
+ * and get the same result (or exception). They wait no longer than the wait
+ * timeout, in case the loader hangs despite the timeouts of its own calls.
+ */
+public class SingleFlight<K, V> {
+    private final ConcurrentHashMap<K, CompletableFuture<V>> inFlight = new ConcurrentHashMap<>();
+
+    private final long waitTimeoutMilliseconds;
+
+    private final Counter executedCounter;
+    private final Counter sharedCounter;
+    private final Counter timedOutCounter;
+
+    public SingleFlight(final String name, final long waitTimeoutMilliseconds, final MeterRegistry meterRegistry) {
+        this.waitTimeoutMilliseconds = waitTimeoutMilliseconds;
+        this.executedCounter = Counter.builder("singleflight.calls").tag("name", name).tag("result", "executed")
+                .register(meterRegistry);
+        this.sharedCounter = Counter.builder("singleflight.calls").tag("name", name).tag("result", "shared")
+                .register(meterRegistry);
+        this.timedOutCounter = Counter.builder("singleflight.calls").tag("name", name).tag("result", "timed_out")
+                .register(meterRegistry);
+    }
+
+    public V execute(final K key, final ThrowingSupplier<V> loader) throws IOException {
+        final CompletableFuture<V> call = new CompletableFuture<>();
+        final CompletableFuture<V> runningCall = this.inFlight.putIfAbsent(key, call);
+
+        if (runningCall != null) {
+            this.sharedCounter.increment();
+            return this.await(runningCall);
+        }
+
+        this.executedCounter.increment();
+        try {
+            final V value = loader.getWithException();
+            call.complete(value);
+            return value;
+        } catch (Throwable e) {
+            call.completeExceptionally(e);
+            throw SingleFlight.asIOException(e);
+        } finally {
+            this.inFlight.remove(key, call);
+        }
+    }
+
+    public int getInFlightCount() {
+        return this.inFlight.size();
+    }
+
+    private V await(final CompletableFuture<V> call) throws IOException {
+        try {
+            return call.get(this.waitTimeoutMilliseconds, TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e) {
+            this.timedOutCounter.increment();
+            throw new IOException("Timed out waiting for a shared call", e);
+        } catch (ExecutionException e) {
+            throw SingleFlight.asIOException(e.getCause());
+        } catch (CancellationException e) {
+            throw new IOException("Shared call was cancelled", e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while waiting for a shared call", e);
+        }
+    }
+
+    private static IOException asIOException(final Throwable e) {
+        if (e instanceof RuntimeException runtimeException) {
+            throw runtimeException;
+        }
+        if (e instanceof Error error) {
+            throw error;
+        }
+        if (e instanceof IOException ioException) {
+            return ioException;
+        }
+        return new IOException(e.getMessage(), e);
+    }
+}
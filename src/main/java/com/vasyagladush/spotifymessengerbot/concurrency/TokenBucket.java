@@ -0,0 +1,62 @@
+package com.vasyagladush.spotifymessengerbot.concurrency;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Rate limiter handing out up to permitsPerSecond permits a second, with bursts
+ * of up to capacity permits. A caller that has to wait for its permit reserves
+ * it first, so callers are served in the order they arrived.
+ */
+public class TokenBucket {
+    private final long capacity;
+    private final double nanosPerPermit;
+    private double availablePermits;
+    private long lastRefillNanos;
+
+    public TokenBucket(final long capacity, final double permitsPerSecond) {
+        this.capacity = capacity;
+        this.nanosPerPermit = TimeUnit.SECONDS.toNanos(1) / permitsPerSecond;
+        this.availablePermits = capacity;
+        this.lastRefillNanos = System.nanoTime();
+    }
+
+    /**
+     * @return false without waiting if no permit becomes available within
+     *         maxWaitMilliseconds
+     */
+    public boolean tryAcquire(final long maxWaitMilliseconds) throws InterruptedException {
+        final long waitNanos = this.reserve(TimeUnit.MILLISECONDS.toNanos(maxWaitMilliseconds));
+        if (waitNanos < 0) {
+            return false;
+        }
+        if (waitNanos > 0) {
+            TimeUnit.NANOSECONDS.sleep(waitNanos);
+        }
+        return true;
+    }
+
+    /**
+     * @return false if no permit is available right now
+     */
+    public boolean tryAcquire() {
+        return this.reserve(0) == 0;
+    }
+
+    // Returns how long to wait for the reserved permit, or -1 if it would be
+    // longer than maxWaitNanos and nothing was reserved
+    private synchronized long reserve(final long maxWaitNanos) {
+        final long now = System.nanoTime();
+        this.availablePermits = Math.min(this.capacity,
+                this.availablePermits + (now - this.lastRefillNanos) / this.nanosPerPermit);
+        this.lastRefillNanos = now;
+
+        // Goes below zero while permits are reserved by waiting callers
+        final long waitNanos = this.availablePermits >= 1 ? 0
+                : (long) ((1 - this.availablePermits) * this.nanosPerPermit);
+        if (waitNanos > maxWaitNanos) {
+            return -1;
+        }
+        this.availablePermits -= 1;
+        return waitNanos;
+    }
+}
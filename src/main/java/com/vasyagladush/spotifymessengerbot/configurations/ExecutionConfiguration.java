@@ -0,0 +1,78 @@
+package com.vasyagladush.spotifymessengerbot.configurations;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.web.embedded.tomcat.TomcatProtocolHandlerCustomizer;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+
+/**
+ * Executors used by the bot. With VIRTUAL_THREADS_ENABLED=true every executor,
+ * as well as Tomcat request handling, runs its tasks on virtual threads instead
+ * of a bounded pool of platform threads.
+ */
+@Configuration
+public class ExecutionConfiguration {
+    public static final String TELEGRAM_UPDATE_EXECUTOR = "telegramUpdateExecutor";
+    public static final String IO_EXECUTOR = "ioExecutor";
+    public static final String LYRICS_PROVIDER_EXECUTOR = "lyricsProviderExecutor";
+    public static final String LYRICS_LOOKUP_EXECUTOR = "lyricsLookupExecutor";
+
+    private static final Logger logger = LogManager.getLogger(ExecutionConfiguration.class);
+
+    private final boolean virtualThreadsEnabled;
+
+    public ExecutionConfiguration(@Value("${VIRTUAL_THREADS_ENABLED:false}") boolean virtualThreadsEnabled) {
+        this.virtualThreadsEnabled = virtualThreadsEnabled;
+        logger.info("Execution mode: " + (virtualThreadsEnabled ? "virtual threads" : "platform threads"));
+    }
+
+    @Bean(name = TELEGRAM_UPDATE_EXECUTOR)
+    public ExecutorService telegramUpdateExecutor(@Value("${TELEGRAM_UPDATE_WORKERS:16}") int workers) {
+        return this.createExecutor("telegram-update-", workers);
+    }
+
+    // For work taken off the update thread so that it doesn't delay the reply
+    @Bean(name = IO_EXECUTOR)
+    public ExecutorService ioExecutor(@Value("${IO_WORKERS:16}") int workers) {
+        return this.createExecutor("io-", workers);
+    }
+
+    // Separate from the io executor, whose tasks wait for the lyrics providers
+    @Bean(name = LYRICS_PROVIDER_EXECUTOR)
+    public ExecutorService lyricsProviderExecutor(@Value("${LYRICS_PROVIDER_WORKERS:16}") int workers) {
+        return this.createExecutor("lyrics-provider-", workers);
+    }
+
+    // Lookups wait for the lyrics providers for seconds, which would hold up the
+    // sends and deletes queued on the io executor
+    @Bean(name = LYRICS_LOOKUP_EXECUTOR)
+    public ExecutorService lyricsLookupExecutor(@Value("${LYRICS_LOOKUP_WORKERS:16}") int workers) {
+        return this.createExecutor("lyrics-lookup-", workers);
+    }
+
+    @Bean
+    @ConditionalOnProperty(name = "VIRTUAL_THREADS_ENABLED", havingValue = "true")
+    public TomcatProtocolHandlerCustomizer<?> virtualThreadsTomcatProtocolHandlerCustomizer() {
+        return protocolHandler -> protocolHandler.setExecutor(ExecutionConfiguration.virtualThreadExecutor("tomcat-"));
+    }
+
+    public static ExecutorService platformThreadExecutor(final String threadNamePrefix, final int threads) {
+        return Executors.newFixedThreadPool(threads, new CustomizableThreadFactory(threadNamePrefix));
+    }
+
+    public static ExecutorService virtualThreadExecutor(final String threadNamePrefix) {
+        return Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name(threadNamePrefix, 0).factory());
+    }
+
+    private ExecutorService createExecutor(final String threadNamePrefix, final int platformThreads) {
+        return this.virtualThreadsEnabled ? ExecutionConfiguration.virtualThreadExecutor(threadNamePrefix)
+                : ExecutionConfiguration.platformThreadExecutor(threadNamePrefix, platformThreads);
+    }
+}
@@ -14,6 +14,7 @@ import org.springframework.web.bind.annotation.ResponseBody;
 import org.springframework.web.bind.annotation.RestController;
 
 import com.vasyagladush.spotifymessengerbot.messengers.telegram.TelegramBot;
+import com.vasyagladush.spotifymessengerbot.models.User;
 import com.vasyagladush.spotifymessengerbot.musicproviders.spotify.SpotifyService;
 import com.vasyagladush.spotifymessengerbot.musicproviders.spotify.types.SpotifyAccessTokenGrantedResponse;
 import com.vasyagladush.spotifymessengerbot.services.UserService;
@@ -41,8 +42,12 @@ public class CallbackController {
             final SpotifyAccessTokenGrantedResponse accessTokenResponse = this.spotifyService
                     .exchangeCodeOnAccessToken(code, state);
             final Date now = new Date();
-            this.userService.updateWithMusicProviderAccessTokens(state, accessTokenResponse.access_token,
-                    accessTokenResponse.refresh_token, new Date(now.getTime() + accessTokenResponse.expires_in * 1000));
+            final User user = this.userService.updateWithMusicProviderAccessTokens(state,
+                    accessTokenResponse.access_token, accessTokenResponse.refresh_token,
+                    new Date(now.getTime() + accessTokenResponse.expires_in * 1000));
+            // The cached copy still has the tokens from before the authorization
+            this.userService.invalidateCache(user);
+            this.spotifyService.invalidateCurrentlyPlayingTrack(user);
             return "Spotify authorized. You can return to the chat now.";
         } catch (NoSuchElementException e) {
             logger.error("Spotify: callback url, no such user found, state: " + state);
@@ -4,25 +4,47 @@ import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import org.glassfish.grizzly.http.util.HttpStatus;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.RequestBody;
 import org.springframework.web.bind.annotation.RequestHeader;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RestController;
+import org.telegram.telegrambots.meta.api.methods.BotApiMethod;
 import org.telegram.telegrambots.meta.api.objects.Update;
 
 import com.vasyagladush.spotifymessengerbot.messengers.telegram.TelegramBot;
+import com.vasyagladush.spotifymessengerbot.messengers.telegram.TelegramUpdateDispatcher;
+import com.vasyagladush.spotifymessengerbot.messengers.telegram.TelegramWebhookReply;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
 
 @RestController
 @RequestMapping("/webhook")
+@ConditionalOnProperty(name = "TELEGRAM_INGESTION_MODE", havingValue = "webhook", matchIfMissing = true)
 public class WebhookController {
     private static final Logger logger = LogManager.getLogger(TelegramBot.class);
     private final TelegramBot telegramBot;
+    private final TelegramUpdateDispatcher telegramUpdateDispatcher;
+    private final long replyTimeoutMilliseconds;
+    private final Counter repliedCounter;
+    private final Counter lateReplyCounter;
 
     @Autowired
-    public WebhookController(TelegramBot telegramBot) {
+    public WebhookController(TelegramBot telegramBot, TelegramUpdateDispatcher telegramUpdateDispatcher,
+            @Value("${TELEGRAM_WEBHOOK_REPLY_TIMEOUT_MS:1000}") long replyTimeoutMilliseconds,
+            MeterRegistry meterRegistry) {
         this.telegramBot = telegramBot;
+        this.telegramUpdateDispatcher = telegramUpdateDispatcher;
+        this.replyTimeoutMilliseconds = replyTimeoutMilliseconds;
+        this.repliedCounter = Counter.builder("telegram.webhook.replies").tag("result", "replied")
+                .description("Methods returned in the webhook response").register(meterRegistry);
+        this.lateReplyCounter = Counter.builder("telegram.webhook.replies").tag("result", "late")
+                .description("Methods called through the Bot API as the webhook response was already sent")
+                .register(meterRegistry);
     }
 
     @PostMapping("/telegram/")
@@ -34,7 +56,41 @@ public class WebhookController {
             return ResponseEntity.status(HttpStatus.FORBIDDEN_403.getStatusCode()).build();
         } else {
             if (update != null && update.hasMessage()) {
-                telegramBot.onWebhookUpdateReceived(update);
+                final TelegramWebhookReply reply = new TelegramWebhookReply();
+                // Most commands send their messages themselves, Telegram needn't wait
+                // for those
+                final boolean awaitReply = telegramBot.mayReply(update);
+                if (!awaitReply) {
+                    reply.close();
+                }
+                final boolean accepted = telegramUpdateDispatcher.submit(update.getMessage().getChatId().toString(),
+                        () -> {
+                            BotApiMethod<?> method = null;
+                            try {
+                                method = telegramBot.onWebhookUpdateReceived(update);
+                            } finally {
+                                if (!reply.offer(method) && method != null) {
+                                    lateReplyCounter.increment();
+                                    telegramBot.executeQuietly(method);
+                                }
+                            }
+                        });
+                if (!accepted) {
+                    // Telegram redelivers the update later if it isn't acknowledged
+                    return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE_503.getStatusCode()).build();
+                }
+
+                if (awaitReply) {
+                    try {
+                        final BotApiMethod<?> method = reply.await(this.replyTimeoutMilliseconds);
+                        if (method != null) {
+                            repliedCounter.increment();
+                            return ResponseEntity.ok(method);
+                        }
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
             }
             return ResponseEntity.ok().build();
         }
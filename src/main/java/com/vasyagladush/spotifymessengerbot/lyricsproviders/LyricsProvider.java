@@ -0,0 +1,23 @@
+package com.vasyagladush.spotifymessengerbot.lyricsproviders;
+
+import java.io.IOException;
+import java.util.Optional;
+
+/**
+ * Source of song lyrics. Implementations are Spring beans, all of them enabled
+ * are queried by {@link RacingLyricsProvider}.
+ */
+public interface LyricsProvider {
+    // Used in logs and metrics
+    String getName();
+
+    default boolean isEnabled() {
+        return true;
+    }
+
+    /**
+     * @param trackId music provider track id, may be null
+     * @return the lyrics, or empty if the provider doesn't know the song
+     */
+    Optional<SongLyrics> getSongLyrics(String trackId, String songName, String artistNames) throws IOException;
+}
@@ -0,0 +1,231 @@
+package com.vasyagladush.spotifymessengerbot.lyricsproviders;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Primary;
+import org.springframework.stereotype.Service;
+
+import com.vasyagladush.spotifymessengerbot.configurations.ExecutionConfiguration;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+
+/**
+ * Queries all enabled providers at once and returns the first lyrics found,
+ * so a slow provider only delays the answer when no other one has the song.
+ * Each provider call has its own timeout. Providers that keep failing are left
+ * out for a while, as long as a healthy one is left; the rest are started
+ * fastest first.
+ */
+@Primary
+@Service
+public class RacingLyricsProvider implements LyricsProvider {
+    private static final Logger logger = LogManager.getLogger(RacingLyricsProvider.class);
+
+    private final List<ProviderHealth> providers = new ArrayList<>();
+    private final ExecutorService executor;
+    private final long timeoutMilliseconds;
+    private final int unhealthyFailureThreshold;
+    private final long unhealthyMilliseconds;
+
+    @Autowired
+    public RacingLyricsProvider(List<LyricsProvider> providers,
+            @Qualifier(ExecutionConfiguration.LYRICS_PROVIDER_EXECUTOR) ExecutorService executor,
+            @Value("${LYRICS_PROVIDER_TIMEOUT_MS:8000}") long timeoutMilliseconds,
+            @Value("${LYRICS_PROVIDER_UNHEALTHY_FAILURES:3}") int unhealthyFailureThreshold,
+            @Value("${LYRICS_PROVIDER_UNHEALTHY_MS:60000}") long unhealthyMilliseconds,
+            MeterRegistry meterRegistry) {
+        for (final LyricsProvider provider : providers) {
+            if (provider != this && provider.isEnabled()) {
+                this.providers.add(new ProviderHealth(provider, meterRegistry));
+            }
+        }
+        this.executor = executor;
+        this.timeoutMilliseconds = timeoutMilliseconds;
+        this.unhealthyFailureThreshold = unhealthyFailureThreshold;
+        this.unhealthyMilliseconds = unhealthyMilliseconds;
+        logger.info("Lyrics providers: " + this.providers.stream().map(health -> health.provider.getName()).toList());
+    }
+
+    @Override
+    public String getName() {
+        return "racing";
+    }
+
+    /**
+     * @return the lyrics, or empty only if every provider answered that it
+     *         doesn't know the song
+     * @throws IOException if a provider failed or timed out and none found the
+     *                     lyrics, as the song may still have lyrics
+     */
+    @Override
+    public Optional<SongLyrics> getSongLyrics(final String trackId, final String songName, final String artistNames)
+            throws IOException {
+        final List<ProviderHealth> providers = this.selectProviders();
+        if (providers.isEmpty()) {
+            return Optional.empty();
+        }
+        final CompletableFuture<Optional<SongLyrics>> race = new CompletableFuture<>();
+        final AtomicInteger remainingCalls = new AtomicInteger(providers.size());
+        final AtomicInteger failedCalls = new AtomicInteger();
+
+        for (final ProviderHealth health : providers) {
+            this.call(health, trackId, songName, artistNames).whenComplete((lyrics, e) -> {
+                if (e == null && lyrics.isPresent()) {
+                    race.complete(lyrics);
+                    return;
+                }
+                if (e != null) {
+                    failedCalls.incrementAndGet();
+                }
+                if (remainingCalls.decrementAndGet() == 0) {
+                    if (failedCalls.get() == providers.size()) {
+                        race.completeExceptionally(new IOException("All lyrics providers failed"));
+                    } else if (failedCalls.get() > 0) {
+                        race.completeExceptionally(new IOException(failedCalls.get() + " of " + providers.size()
+                                + " lyrics providers failed and the rest didn't find the song"));
+                    } else {
+                        race.complete(Optional.empty());
+                    }
+                }
+            });
+        }
+
+        try {
+            return race.get();
+        } catch (ExecutionException e) {
+            throw new IOException(e.getCause().getMessage(), e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for the lyrics providers");
+        }
+    }
+
+    // Healthy providers fastest first; unhealthy ones only if there's nothing else
+    private List<ProviderHealth> selectProviders() {
+        final long now = System.currentTimeMillis();
+        final List<ProviderHealth> healthyProviders = new ArrayList<>();
+        for (final ProviderHealth health : this.providers) {
+            if (health.unhealthyUntil <= now) {
+                healthyProviders.add(health);
+            }
+        }
+        // Latencies are read once, as they may change while sorting
+        return (healthyProviders.isEmpty() ? this.providers : healthyProviders).stream()
+                .map(health -> Map.entry(health, health.averageLatencyMilliseconds))
+                .sorted(Map.Entry.comparingByValue()).map(Map.Entry::getKey).toList();
+    }
+
+    private CompletableFuture<Optional<SongLyrics>> call(final ProviderHealth health, final String trackId,
+            final String songName, final String artistNames) {
+        final long startedAt = System.nanoTime();
+        CompletableFuture<Optional<SongLyrics>> call;
+        try {
+            call = CompletableFuture.supplyAsync(() -> {
+                try {
+                    return health.provider.getSongLyrics(trackId, songName, artistNames);
+                } catch (IOException e) {
+                    throw new CompletionException(e);
+                }
+            }, this.executor);
+        } catch (RejectedExecutionException e) {
+            call = CompletableFuture.failedFuture(e);
+        }
+
+        return call.orTimeout(this.timeoutMilliseconds, TimeUnit.MILLISECONDS).whenComplete((lyrics, e) -> {
+            final long latencyNanoseconds = System.nanoTime() - startedAt;
+            health.latencyTimer.record(latencyNanoseconds, TimeUnit.NANOSECONDS);
+            if (e == null) {
+                (lyrics.isPresent() ? health.foundCounter : health.notFoundCounter).increment();
+                health.onSuccess(latencyNanoseconds);
+                return;
+            }
+
+            final Throwable cause = e instanceof CompletionException && e.getCause() != null ? e.getCause() : e;
+            (cause instanceof TimeoutException ? health.timedOutCounter : health.failedCounter).increment();
+            logger.warn("Lyrics provider " + health.provider.getName() + " failed, error message: "
+                    + cause.getMessage());
+            if (health.onFailure(latencyNanoseconds, this.unhealthyFailureThreshold, this.unhealthyMilliseconds)) {
+                logger.warn("Lyrics provider " + health.provider.getName() + " is left out for "
+                        + this.unhealthyMilliseconds + " ms");
+            }
+        });
+    }
+
+    private static class ProviderHealth {
+        // Weight of the latest call in the average latency
+        private static final double LATENCY_WEIGHT = 0.2;
+
+        private final LyricsProvider provider;
+        private final Timer latencyTimer;
+        private final Counter foundCounter;
+        private final Counter notFoundCounter;
+        private final Counter failedCounter;
+        private final Counter timedOutCounter;
+
+        private int consecutiveFailures;
+        private volatile double averageLatencyMilliseconds;
+        private volatile long unhealthyUntil;
+
+        ProviderHealth(LyricsProvider provider, MeterRegistry meterRegistry) {
+            this.provider = provider;
+            this.latencyTimer = Timer.builder("lyrics.provider.latency").tag("provider", provider.getName())
+                    .register(meterRegistry);
+            this.foundCounter = ProviderHealth.constructCallCounter(provider, "found", meterRegistry);
+            this.notFoundCounter = ProviderHealth.constructCallCounter(provider, "not_found", meterRegistry);
+            this.failedCounter = ProviderHealth.constructCallCounter(provider, "failed", meterRegistry);
+            this.timedOutCounter = ProviderHealth.constructCallCounter(provider, "timed_out", meterRegistry);
+        }
+
+        private static Counter constructCallCounter(final LyricsProvider provider, final String result,
+                final MeterRegistry meterRegistry) {
+            return Counter.builder("lyrics.provider.calls").tag("provider", provider.getName())
+                    .tag("result", result).register(meterRegistry);
+        }
+
+        synchronized void onSuccess(final long latencyNanoseconds) {
+            this.consecutiveFailures = 0;
+            this.unhealthyUntil = 0;
+            this.recordLatency(latencyNanoseconds);
+        }
+
+        /**
+         * @return true if the provider has just become unhealthy
+         */
+        synchronized boolean onFailure(final long latencyNanoseconds, final int unhealthyFailureThreshold,
+                final long unhealthyMilliseconds) {
+            this.recordLatency(latencyNanoseconds);
+            if (++this.consecutiveFailures < unhealthyFailureThreshold) {
+                return false;
+            }
+            this.consecutiveFailures = 0;
+            this.unhealthyUntil = System.currentTimeMillis() + unhealthyMilliseconds;
+            return true;
+        }
+
+        private void recordLatency(final long latencyNanoseconds) {
+            final double latencyMilliseconds = latencyNanoseconds / 1_000_000.0;
+            this.averageLatencyMilliseconds = this.averageLatencyMilliseconds == 0 ? latencyMilliseconds
+                    : LATENCY_WEIGHT * latencyMilliseconds + (1 - LATENCY_WEIGHT) * this.averageLatencyMilliseconds;
+        }
+    }
+}
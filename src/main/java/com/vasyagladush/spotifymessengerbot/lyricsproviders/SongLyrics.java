@@ -0,0 +1,12 @@
+package com.vasyagladush.spotifymessengerbot.lyricsproviders;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+@Getter
+@AllArgsConstructor
+public class SongLyrics {
+    private final String lyrics;
+    // Page the lyrics were taken from, if known
+    private final String sourceUrl;
+}
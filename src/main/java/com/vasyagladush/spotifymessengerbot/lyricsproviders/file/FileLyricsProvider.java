@@ -0,0 +1,77 @@
+package com.vasyagladush.spotifymessengerbot.lyricsproviders.file;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Locale;
+import java.util.Optional;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import com.vasyagladush.spotifymessengerbot.lyricsproviders.LyricsProvider;
+import com.vasyagladush.spotifymessengerbot.lyricsproviders.SongLyrics;
+
+/**
+ * Lyrics kept as text files in the LYRICS_DIRECTORY directory, for songs that
+ * other providers get wrong or don't have. A song is looked up as
+ * "{track id}.txt" first, then as "{artists} - {song}.txt" in lower case with
+ * characters other than letters, digits, spaces and dashes removed.
+ * Disabled when LYRICS_DIRECTORY is not set.
+ */
+@Service
+public class FileLyricsProvider implements LyricsProvider {
+    private static final Logger logger = LogManager.getLogger(FileLyricsProvider.class);
+    private static final String FILE_EXTENSION = ".txt";
+
+    private final Path directory;
+
+    @Autowired
+    public FileLyricsProvider(@Value("${LYRICS_DIRECTORY:}") String directory) {
+        this.directory = directory.isBlank() ? null : Path.of(directory);
+        if (this.directory != null) {
+            logger.info("Lyrics directory: " + this.directory.toAbsolutePath());
+        }
+    }
+
+    @Override
+    public String getName() {
+        return "file";
+    }
+
+    @Override
+    public boolean isEnabled() {
+        return this.directory != null;
+    }
+
+    @Override
+    public Optional<SongLyrics> getSongLyrics(final String trackId, final String songName, final String artistNames)
+            throws IOException {
+        if (trackId != null && !trackId.isBlank()) {
+            final Optional<SongLyrics> lyrics = this.read(FileLyricsProvider.toFileName(trackId));
+            if (lyrics.isPresent()) {
+                return lyrics;
+            }
+        }
+        return this.read(FileLyricsProvider.toFileName(artistNames + " - " + songName));
+    }
+
+    private Optional<SongLyrics> read(final String fileName) throws IOException {
+        final Path file = this.directory.resolve(fileName);
+        if (!Files.isRegularFile(file)) {
+            return Optional.empty();
+        }
+        logger.debug("Lyrics found in file " + file);
+        return Optional.of(new SongLyrics(Files.readString(file, StandardCharsets.UTF_8), file.toUri().toString()));
+    }
+
+    // Dropping dots and slashes also keeps the file inside the directory
+    private static String toFileName(final String name) {
+        return name.toLowerCase(Locale.ROOT).replaceAll("[^\\p{L}\\p{N} -]", "").replaceAll("\\s+", " ").trim()
+                + FILE_EXTENSION;
+    }
+}
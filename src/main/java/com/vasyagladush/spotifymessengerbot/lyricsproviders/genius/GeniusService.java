@@ -1,15 +1,24 @@
 package com.vasyagladush.spotifymessengerbot.lyricsproviders.genius;
 
 import java.io.IOException;
+import java.util.Optional;
 
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
+import com.vasyagladush.spotifymessengerbot.lyricsproviders.LyricsProvider;
+import com.vasyagladush.spotifymessengerbot.lyricsproviders.SongLyrics;
+import com.vasyagladush.spotifymessengerbot.metrics.ExternalCallTimer;
+
 import core.GLA;
+import genius.SongSearch;
+import io.micrometer.core.instrument.MeterRegistry;
 
 // Almost the same as  com.github.LowLevelSubmarine.core.GLA
-// public class GeniusService {
+// public class GeniusService implements LyricsProvider {
 //     // private GeniusHttpManager httpManager = new GeniusHttpManager();
 
 //     // public SongSearch search(String query) throws IOException {
@@ -22,12 +31,65 @@ import core.GLA;
 // }
 
 @Service
-public class GeniusService {
+public class GeniusService implements LyricsProvider {
     private static final Logger logger = LogManager.getLogger(GeniusService.class);
     private static GLA gla = new GLA();
 
-    public String getSongLyrics(final String songName, final String artistsNames) throws IOException {
+    private final boolean enabled;
+    private final ExternalCallTimer searchCallTimer;
+    private final ExternalCallTimer fetchCallTimer;
+
+    // Disabled e.g. for load tests, as the Genius hosts can't be changed
+    @Autowired
+    public GeniusService(@Value("${GENIUS_ENABLED:true}") boolean enabled, MeterRegistry meterRegistry) {
+        this.enabled = enabled;
+        this.searchCallTimer = new ExternalCallTimer("genius", "search", meterRegistry);
+        this.fetchCallTimer = new ExternalCallTimer("genius", "fetch", meterRegistry);
+    }
+
+    @Override
+    public String getName() {
+        return "genius";
+    }
+
+    @Override
+    public boolean isEnabled() {
+        return this.enabled;
+    }
+
+    /**
+     * @return the lyrics of the best search hit, or empty if Genius found no song
+     */
+    @Override
+    public Optional<SongLyrics> getSongLyrics(final String trackId, final String songName,
+            final String artistsNames) throws IOException {
         logger.debug("Genius lyrics search starts");
-        return GeniusService.gla.search(songName + " " + artistsNames).getHits().get(0).fetchLyrics();
+        final long searchStartedAt = System.nanoTime();
+        boolean searched = false;
+        final SongSearch search;
+        try {
+            search = GeniusService.gla.search(songName + " " + artistsNames);
+            searched = true;
+        } finally {
+            this.searchCallTimer.record(searchStartedAt, searched);
+        }
+
+        final var hits = search.getHits();
+        if (hits.isEmpty()) {
+            return Optional.empty();
+        }
+
+        final var hit = hits.get(0);
+        final long fetchStartedAt = System.nanoTime();
+        String lyrics = null;
+        try {
+            lyrics = hit.fetchLyrics();
+        } finally {
+            this.fetchCallTimer.record(fetchStartedAt, lyrics != null);
+        }
+        if (lyrics == null) {
+            throw new IOException("Genius lyrics page couldn't be fetched");
+        }
+        return Optional.of(new SongLyrics(lyrics, hit.getUrl()));
     }
 }
\ No newline at end of file
@@ -0,0 +1,51 @@
+package com.vasyagladush.spotifymessengerbot.messengers.telegram;
+
+import java.util.List;
+
+import org.telegram.telegrambots.meta.api.methods.botapimethods.BotApiMethodBoolean;
+import org.telegram.telegrambots.meta.exceptions.TelegramApiValidationException;
+
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+
+/**
+ * Bot API deleteMessages method (deletes up to 100 messages of a chat at once),
+ * which is newer than the telegrambots library version in use.
+ * Messages that can't be found are skipped by Telegram.
+ */
+@Getter
+@Setter
+@NoArgsConstructor
+@AllArgsConstructor
+@JsonIgnoreProperties(ignoreUnknown = true)
+public class DeleteMessages extends BotApiMethodBoolean {
+    public static final String PATH = "deleteMessages";
+    public static final int MAX_MESSAGE_IDS = 100;
+
+    @JsonProperty("chat_id")
+    private String chatId;
+
+    @JsonProperty("message_ids")
+    private List<Integer> messageIds;
+
+    @Override
+    public String getMethod() {
+        return PATH;
+    }
+
+    @Override
+    public void validate() throws TelegramApiValidationException {
+        if (this.chatId == null || this.chatId.isEmpty()) {
+            throw new TelegramApiValidationException("ChatId parameter can't be empty", this);
+        }
+        if (this.messageIds == null || this.messageIds.isEmpty() || this.messageIds.size() > MAX_MESSAGE_IDS) {
+            throw new TelegramApiValidationException(
+                    "MessageIds parameter must contain from 1 to " + MAX_MESSAGE_IDS + " ids", this);
+        }
+    }
+}
@@ -2,15 +2,25 @@ package com.vasyagladush.spotifymessengerbot.messengers.telegram;
 
 import java.io.IOException;
 import java.util.ArrayList;
-import java.util.Arrays;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
 import org.apache.http.client.ClientProtocolException;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Component;
+import org.telegram.telegrambots.bots.DefaultBotOptions;
 import org.telegram.telegrambots.bots.TelegramWebhookBot;
 import org.telegram.telegrambots.meta.api.methods.BotApiMethod;
 import org.telegram.telegrambots.meta.api.methods.ParseMode;
@@ -22,28 +32,38 @@ import org.telegram.telegrambots.meta.api.objects.Update;
 import org.telegram.telegrambots.meta.api.objects.replykeyboard.ReplyKeyboardMarkup;
 import org.telegram.telegrambots.meta.api.objects.replykeyboard.buttons.KeyboardRow;
 import org.telegram.telegrambots.meta.exceptions.TelegramApiException;
+import org.telegram.telegrambots.meta.exceptions.TelegramApiRequestException;
 
 import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.JsonMappingException;
-import com.vasyagladush.spotifymessengerbot.lyricsproviders.genius.GeniusService;
+import com.vasyagladush.spotifymessengerbot.configurations.ExecutionConfiguration;
+import com.vasyagladush.spotifymessengerbot.messengers.telegram.commands.ClearCommandHandler;
+import com.vasyagladush.spotifymessengerbot.messengers.telegram.commands.CloseSettingsCommandHandler;
+import com.vasyagladush.spotifymessengerbot.messengers.telegram.commands.CommandHandler;
+import com.vasyagladush.spotifymessengerbot.messengers.telegram.commands.CommandRegistry;
+import com.vasyagladush.spotifymessengerbot.messengers.telegram.commands.LyricsCommandHandler;
+import com.vasyagladush.spotifymessengerbot.messengers.telegram.commands.OpenSettingsCommandHandler;
+import com.vasyagladush.spotifymessengerbot.messengers.telegram.commands.ToggleAutoclearCommandHandler;
+import com.vasyagladush.spotifymessengerbot.metrics.ExternalCallTimer;
 import com.vasyagladush.spotifymessengerbot.models.MessengerPlatform;
 import com.vasyagladush.spotifymessengerbot.models.MusicProviderPlatform;
 import com.vasyagladush.spotifymessengerbot.models.User;
+import com.vasyagladush.spotifymessengerbot.models.UserSummary;
+import com.vasyagladush.spotifymessengerbot.musicproviders.spotify.SpotifyApiException;
 import com.vasyagladush.spotifymessengerbot.musicproviders.spotify.SpotifyService;
 import com.vasyagladush.spotifymessengerbot.musicproviders.spotify.types.SpotifyGetCurrentlyPlayingTrackResponse;
 import com.vasyagladush.spotifymessengerbot.musicproviders.spotify.types.SpotifyGetCurrentlyPlayingTrackResponse.Artist;
+import com.vasyagladush.spotifymessengerbot.services.LyricsService;
 import com.vasyagladush.spotifymessengerbot.services.UserService;
+import com.vasyagladush.spotifymessengerbot.services.UserUnitOfWork;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
 
 @Component
 public class TelegramBot extends TelegramWebhookBot {
-    private static final String[] AUTH_MESSAGE_INPUTS = { "/start" };
-    private static final String[] LYRICS_MESSAGE_INPUTS = { "Lyrics", "/lyrics", };
-    private static final String[] CLEAR_MESSAGE_INPUTS = { "Clear", "/clear", };
-    private static final String[] OPEN_SETTINGS_MESSAGE_INPUTS = { "Settings" };
-    private static final String[] CLOSE_SETTINGS_INPUTS = { "Leave Settings" };
-    private static final String[] TOGGLE_AUTOCLEAR_INPUTS = { "Autoclear", "/autoclear" };
-
-    private static final ReplyKeyboardMarkup DEFAULT_REPLY_KEYBOARD_MARKUP = TelegramBot
+    public static final ReplyKeyboardMarkup DEFAULT_REPLY_KEYBOARD_MARKUP = TelegramBot
             .constructDefaultReplyKeyboardMarkup();
 
     private static final Logger logger = LogManager.getLogger(TelegramBot.class);
@@ -54,21 +74,111 @@ public class TelegramBot extends TelegramWebhookBot {
     private final String webhookSecretToken;
     private final UserService userService;
     private final SpotifyService spotifyService;
-    private final GeniusService geniusService;
+    private final LyricsService lyricsService;
+    private final ExecutorService ioExecutor;
+    private final ExecutorService lyricsLookupExecutor;
+    private final TelegramSendScheduler sendScheduler;
+    private final TelegramLyricsFormatter lyricsFormatter;
+    private final CommandRegistry commandRegistry;
+    private final int deleteParallelism;
+    private final Counter clearedMessagesCounter;
+    private final Counter notClearedMessagesCounter;
+    private final Counter batchClearedMessagesCounter;
+    private final long lyricsLookupTimeoutMilliseconds;
+    private final Timer spotifyStageTimer;
+    private final Timer songInfoSendStageTimer;
+    private final Timer lyricsLookupStageTimer;
+    private final Timer lyricsFormatStageTimer;
+    private final Timer lyricsTotalTimer;
+    private final Counter lyricsFoundCounter;
+    private final Counter lyricsNotFoundCounter;
+    private final Counter nothingPlayingCounter;
+    private final Counter lyricsTimedOutCounter;
+    private final Counter lyricsFailedCounter;
+    private final ExternalCallTimer deleteMessagesCallTimer;
+    private final ExternalCallTimer deleteMessageCallTimer;
+    // By command handler name, "unknown" for texts no handler matches and "no_text"
+    private final Map<String, CommandTimers> commandTimers = new HashMap<>();
+
+    // Switched off once the Bot API server turns out not to know deleteMessages
+    private volatile boolean deleteMessagesSupported = true;
+    // Switched on once a deleteMessages call succeeds; only then it is returned as
+    // the webhook reply, whose result isn't seen
+    private volatile boolean deleteMessagesConfirmed;
 
     @Autowired
     public TelegramBot(@Value("${TELEGRAM_BOT_TOKEN}") String botToken,
             @Value("${TELEGRAM_BOT_USERNAME}") String botUsername, @Value("${BASE_URL}") String baseUrl,
             @Value("${TELEGRAM_WEBHOOK_SECRET_TOKEN}") String webhookSecretToken, UserService userService,
-            SpotifyService spotifyService, GeniusService geniusService) {
-        super(botToken);
+            SpotifyService spotifyService, LyricsService lyricsService,
+            @Qualifier(ExecutionConfiguration.IO_EXECUTOR) ExecutorService ioExecutor,
+            @Qualifier(ExecutionConfiguration.LYRICS_LOOKUP_EXECUTOR) ExecutorService lyricsLookupExecutor,
+            TelegramSendScheduler sendScheduler, TelegramLyricsFormatter lyricsFormatter,
+            CommandRegistry commandRegistry,
+            @Value("${TELEGRAM_DELETE_PARALLELISM:4}") int deleteParallelism,
+            @Value("${LYRICS_LOOKUP_TIMEOUT_MS:10000}") long lyricsLookupTimeoutMilliseconds,
+            @Value("${TELEGRAM_API_URL:https://api.telegram.org/}") String apiUrl,
+            MeterRegistry meterRegistry) {
+        super(TelegramBot.constructBotOptions(apiUrl), botToken);
         this.botToken = botToken;
         this.botUsername = botUsername;
         this.serverBaseUrl = baseUrl;
         this.webhookSecretToken = webhookSecretToken;
         this.userService = userService;
         this.spotifyService = spotifyService;
-        this.geniusService = geniusService;
+        this.lyricsService = lyricsService;
+        this.ioExecutor = ioExecutor;
+        this.lyricsLookupExecutor = lyricsLookupExecutor;
+        this.sendScheduler = sendScheduler;
+        this.lyricsFormatter = lyricsFormatter;
+        this.commandRegistry = commandRegistry;
+        this.deleteParallelism = deleteParallelism;
+        this.clearedMessagesCounter = Counter.builder("telegram.messages.cleared").tag("result", "deleted")
+                .register(meterRegistry);
+        this.notClearedMessagesCounter = Counter.builder("telegram.messages.cleared").tag("result", "failed")
+                .register(meterRegistry);
+        // deleteMessages only says whether any message of the batch was deleted
+        this.batchClearedMessagesCounter = Counter.builder("telegram.messages.cleared")
+                .tag("result", "batch_attempted").register(meterRegistry);
+        this.lyricsLookupTimeoutMilliseconds = lyricsLookupTimeoutMilliseconds;
+        this.spotifyStageTimer = TelegramBot.constructLyricsStageTimer("spotify", meterRegistry);
+        this.songInfoSendStageTimer = TelegramBot.constructLyricsStageTimer("song_info_send", meterRegistry);
+        this.lyricsLookupStageTimer = TelegramBot.constructLyricsStageTimer("lyrics_lookup", meterRegistry);
+        this.lyricsFormatStageTimer = TelegramBot.constructLyricsStageTimer("lyrics_format", meterRegistry);
+        this.lyricsTotalTimer = TelegramBot.constructLyricsStageTimer("total", meterRegistry);
+        this.lyricsFoundCounter = TelegramBot.constructLyricsResultCounter("found", meterRegistry);
+        this.lyricsNotFoundCounter = TelegramBot.constructLyricsResultCounter("not_found", meterRegistry);
+        this.nothingPlayingCounter = TelegramBot.constructLyricsResultCounter("nothing_playing", meterRegistry);
+        this.lyricsTimedOutCounter = TelegramBot.constructLyricsResultCounter("timed_out", meterRegistry);
+        this.lyricsFailedCounter = TelegramBot.constructLyricsResultCounter("failed", meterRegistry);
+        this.deleteMessagesCallTimer = new ExternalCallTimer("telegram", "delete_messages", meterRegistry);
+        this.deleteMessageCallTimer = new ExternalCallTimer("telegram", "delete_message", meterRegistry);
+        for (final String command : commandRegistry.getHandlerNames()) {
+            this.commandTimers.put(command, new CommandTimers(command, meterRegistry));
+        }
+        this.commandTimers.put("unknown", new CommandTimers("unknown", meterRegistry));
+        this.commandTimers.put("no_text", new CommandTimers("no_text", meterRegistry));
+    }
+
+    // Other than the default, e.g. a local Bot API server or a stub one in tests
+    static DefaultBotOptions constructBotOptions(final String apiUrl) {
+        final DefaultBotOptions botOptions = new DefaultBotOptions();
+        botOptions.setBaseUrl((apiUrl.endsWith("/") ? apiUrl : apiUrl + "/") + "bot");
+        return botOptions;
+    }
+
+    private static Timer constructLyricsStageTimer(final String stage, final MeterRegistry meterRegistry) {
+        return Timer.builder("telegram.lyrics.stage").tag("stage", stage)
+                .description("Time spent in a stage of a lyrics request, stages may overlap").register(meterRegistry);
+    }
+
+    private static Counter constructLyricsResultCounter(final String result, final MeterRegistry meterRegistry) {
+        return Counter.builder("telegram.lyrics.results").tag("result", result)
+                .description("Answers to lyrics requests").register(meterRegistry);
+    }
+
+    private void recordCommand(final String command, final String result, final long startedAt) {
+        this.commandTimers.get(command).get(result).record(System.nanoTime() - startedAt, TimeUnit.NANOSECONDS);
     }
 
     @Override
@@ -104,61 +214,97 @@ public class TelegramBot extends TelegramWebhookBot {
         WebhookUtilsV2.setWebhook(this, this, setWebhook);
     }
 
+    /**
+     * @return the last method of the flow if its result isn't needed, to be
+     *         returned in the webhook response; it must be called with
+     *         {@link #executeQuietly} if that is not possible anymore
+     */
     @Override
     public BotApiMethod<?> onWebhookUpdateReceived(final Update update) {
         final String chatId = update.getMessage().getChatId().toString();
-        final User user = this.userService.createOrUpdate(MessengerPlatform.TELEGRAM, chatId,
+        // Only the lyrics command needs the full user, which it loads itself
+        final UserSummary user = this.userService.getSummaryOrCreate(MessengerPlatform.TELEGRAM, chatId,
                 MusicProviderPlatform.SPOTIFY);
+        this.userService.markSeen(user);
 
         logger.info("Platform: " + MessengerPlatform.TELEGRAM + ": message received from chat id " + chatId);
         logger.debug("Platform: " + MessengerPlatform.TELEGRAM + ": message received from chat id " + chatId +
                 ", messageId: " + update.getMessage().getMessageId().toString());
 
+        // Changes to the user are written once the update is processed. Messages
+        // still queued in the send scheduler then are tracked when they are sent,
+        // through the write-behind buffer, so the worker doesn't wait for them
+        final UserUnitOfWork unitOfWork = this.userService.beginUnitOfWork(user);
         try {
-            userService.addMessageToClear(user, update.getMessage().getMessageId().toString());
-
-            if (update.hasMessage() && update.getMessage().hasText()) {
-                String messageText = update.getMessage().getText().trim();
-
-                if (Arrays.stream(TelegramBot.AUTH_MESSAGE_INPUTS).anyMatch(messageText::equals)) {
-                    this.processAuthorizationRequestMessage(user, chatId);
-                }
-
-                else if (Arrays.stream(TelegramBot.LYRICS_MESSAGE_INPUTS).anyMatch(messageText::equals)) {
-                    if (user.isAutoclear())
-                        this.clearMessagesMarkedAsToClear(chatId, user);
-                    this.processLyricsRequestMessage(user, chatId);
-                }
-
-                else if (Arrays.stream(TelegramBot.CLEAR_MESSAGE_INPUTS).anyMatch(messageText::equals)) {
-                    this.clearMessagesMarkedAsToClear(chatId, user);
-                }
+            return this.processUpdate(update, user, chatId);
+        } finally {
+            unitOfWork.close();
+        }
+    }
 
-                else if (Arrays.stream(TelegramBot.OPEN_SETTINGS_MESSAGE_INPUTS).anyMatch(messageText::equals)) {
-                    this.sendResponseMessage(chatId, user, "Please configure the settings now",
-                            constructSettingsReplyKeyboardMarkup(user));
-                }
+    /**
+     * @return false if {@link #onWebhookUpdateReceived} is known not to return a
+     *         method for the update, so there is nothing to wait for
+     */
+    public boolean mayReply(final Update update) {
+        if (!update.hasMessage() || !update.getMessage().hasText()) {
+            return false;
+        }
+        final CommandHandler commandHandler = this.commandRegistry.find(update.getMessage().getText().trim());
+        return commandHandler != null && commandHandler.mayReply();
+    }
 
-                else if (Arrays.stream(TelegramBot.CLOSE_SETTINGS_INPUTS).anyMatch(messageText::equals)) {
-                    this.sendResponseMessage(chatId, user, "Settings closed",
-                            TelegramBot.DEFAULT_REPLY_KEYBOARD_MARKUP);
-                }
+    public void executeQuietly(final BotApiMethod<?> method) {
+        try {
+            this.execute(method);
+        } catch (TelegramApiException e) {
+            logger.error("Platform: " + MessengerPlatform.TELEGRAM + ": error calling " + method.getMethod()
+                    + ", error message: " + e.getMessage());
+            logger.trace(e.getStackTrace());
+        }
+    }
 
-                else if (Arrays.stream(TelegramBot.TOGGLE_AUTOCLEAR_INPUTS).anyMatch(messageText::startsWith)) {
-                    userService.toggleAutoclear(user);
-                    this.sendResponseMessage(chatId, user,
-                            "Autoclear is turned " + (user.isAutoclear() ? "on" : "off"),
-                            constructSettingsReplyKeyboardMarkup(user));
-                }
+    // Sent messages are all tracked to be cleared, which needs their ids, so only
+    // deletions are returned as the webhook reply
+    private BotApiMethod<?> processUpdate(final Update update, final UserSummary user, final String chatId) {
+        final long startedAt = System.nanoTime();
+        String command = "no_text";
+        String result = "error";
+        try {
+            userService.addMessageToClear(user, update.getMessage().getMessageId());
 
-                else {
-                    this.sendResponseMessage(chatId, user, "Unprocessable input");
+            if (update.hasMessage() && update.getMessage().hasText()) {
+                final String messageText = update.getMessage().getText().trim();
+                final CommandHandler commandHandler = this.commandRegistry.find(messageText);
+
+                if (commandHandler != null) {
+                    command = commandHandler.getName();
+                    logger.debug("Platform: " + MessengerPlatform.TELEGRAM + ": command " + command
+                            + " from chat id " + chatId);
+                    final BotApiMethod<?> reply = commandHandler.handle(this, user, chatId, messageText);
+                    result = "success";
+                    return reply;
                 }
+                command = "unknown";
+                this.sendResponseMessage(chatId, user, "Unprocessable input");
             } else {
                 this.sendResponseMessage(chatId, user, "Error: no text input");
             }
-
-            return null;
+            result = "success";
+        } catch (SpotifyApiException e) {
+            result = "spotify_error";
+            logger.error("Platform: " + MessengerPlatform.TELEGRAM + ": error with chat: " + chatId
+                    + ", Spotify error, status: " + e.getStatusCode() + ", error message: " + e.getMessage());
+            logger.trace(e.getStackTrace());
+            try {
+                this.sendResponseMessage(chatId, user, e.isUnavailable()
+                        ? "Spotify is busy right now. Please try again in a minute"
+                        : "Spotify refused the request. In case the error keeps persisting, try following the authorization process again: /start");
+            } catch (Throwable e2) {
+                logger.error("Platform: " + MessengerPlatform.TELEGRAM + ": error with chat: " + chatId
+                        + ", error message: " + e2.getMessage());
+                logger.trace(e2.getStackTrace());
+            }
         } catch (Throwable e) {
             logger.error("Platform: " + MessengerPlatform.TELEGRAM + ": error with chat: " + chatId
                     + ", error message: " + e.getMessage());
@@ -171,55 +317,167 @@ public class TelegramBot extends TelegramWebhookBot {
                         + ", error message: " + e2.getMessage());
                 logger.trace(e2.getStackTrace());
             }
+        } finally {
+            this.recordCommand(command, result, startedAt);
         }
-
         return null;
     }
 
-    private Message sendResponseMessage(final String chatId, final User user, final String messageContent,
-            final ReplyKeyboardMarkup replyKeyboardMarkup)
-            throws TelegramApiException, JsonProcessingException, JsonMappingException {
-        final Message responseMessage = this.execute(SendMessage.builder().chatId(chatId).text(messageContent)
-                .replyMarkup(replyKeyboardMarkup).parseMode(ParseMode.MARKDOWN).build());
+    // Queued in the send scheduler, the message is marked as to clear once sent
+    private CompletableFuture<Message> sendResponseMessage(final String chatId, final UserSummary user,
+            final String messageContent, final ReplyKeyboardMarkup replyKeyboardMarkup, final String parseMode) {
+        return this.sendScheduler.send(this, SendMessage.builder().chatId(chatId).text(messageContent)
+                .replyMarkup(replyKeyboardMarkup).parseMode(parseMode).build(),
+                responseMessage -> userService.addMessageToClear(user, responseMessage.getMessageId()));
+    }
 
-        userService.addMessageToClear(user, responseMessage.getMessageId().toString());
+    public CompletableFuture<Message> sendResponseMessage(final String chatId, final UserSummary user,
+            final String messageContent, final ReplyKeyboardMarkup replyKeyboardMarkup) {
+        return this.sendResponseMessage(chatId, user, messageContent, replyKeyboardMarkup, ParseMode.MARKDOWN);
+    }
 
-        return responseMessage;
+    // For text coming from the music or lyrics provider, escaped with
+    // TelegramLyricsFormatter.escapeHtml
+    private CompletableFuture<Message> sendHtmlResponseMessage(final String chatId, final UserSummary user,
+            final String messageContent) {
+        return this.sendResponseMessage(chatId, user, messageContent, TelegramBot.DEFAULT_REPLY_KEYBOARD_MARKUP,
+                ParseMode.HTML);
     }
 
-    private Message sendResponseMessage(final String chatId, final User user, final String messageContent)
-            throws TelegramApiException, JsonProcessingException, JsonMappingException {
+    public CompletableFuture<Message> sendResponseMessage(final String chatId, final UserSummary user,
+            final String messageContent) {
         return this.sendResponseMessage(chatId, user, messageContent, TelegramBot.DEFAULT_REPLY_KEYBOARD_MARKUP);
     }
 
-    private void clearMessagesMarkedAsToClear(final String chatId, final User user)
-            throws TelegramApiException, JsonProcessingException, JsonMappingException {
-        logger.debug("inside clearMessagesMarkedAsToClear");
+    /**
+     * @param replyWithLastDeletion whether the last deletion may be left to the
+     *                              caller to return as the webhook reply
+     * @return the last deletion, if it was left to the caller
+     */
+    public BotApiMethod<?> clearMessagesMarkedAsToClear(final String chatId, final UserSummary user,
+            final boolean replyWithLastDeletion) {
+        final List<Integer> messagesToClear = userService.getMessagesToClear(user);
+        if (messagesToClear.isEmpty())
+            return null;
 
-        userService.getMessagesToClearAsArrayListOfString(user)
-                .forEach((messageId) -> this.safeDeleteMessage(new DeleteMessage(chatId, Integer.valueOf(messageId))));
-        userService.resetMessagesToClear(user);
+        // The last batch, or the last message when deleting one by one
+        BotApiMethod<?> lastDeletion = null;
+        List<Integer> messagesToDelete = messagesToClear;
+        if (replyWithLastDeletion && this.deleteMessagesSupported && this.deleteMessagesConfirmed) {
+            final int lastBatchIndex = (messagesToClear.size() - 1) / DeleteMessages.MAX_MESSAGE_IDS
+                    * DeleteMessages.MAX_MESSAGE_IDS;
+            lastDeletion = new DeleteMessages(chatId,
+                    new ArrayList<>(messagesToClear.subList(lastBatchIndex, messagesToClear.size())));
+            messagesToDelete = messagesToClear.subList(0, lastBatchIndex);
+        } else if (replyWithLastDeletion && !this.deleteMessagesSupported) {
+            lastDeletion = new DeleteMessage(chatId, messagesToClear.get(messagesToClear.size() - 1));
+            messagesToDelete = messagesToClear.subList(0, messagesToClear.size() - 1);
+        }
+
+        // Deletions confirmed one by one, and messages of batches Telegram accepted,
+        // which it deletes as far as it can without saying which ones it did
+        int deletedCount = 0;
+        int batchAttemptedCount = 0;
+        for (int i = 0; i < messagesToDelete.size(); i += DeleteMessages.MAX_MESSAGE_IDS) {
+            final List<Integer> batch = messagesToDelete.subList(i,
+                    Math.min(i + DeleteMessages.MAX_MESSAGE_IDS, messagesToDelete.size()));
+            if (this.deleteMessagesInBatch(chatId, batch)) {
+                batchAttemptedCount += batch.size();
+            } else {
+                deletedCount += this.deleteMessagesOneByOne(chatId, batch);
+            }
+        }
+        final int failedCount = messagesToDelete.size() - batchAttemptedCount - deletedCount;
+        final int repliedCount = messagesToClear.size() - messagesToDelete.size();
+
+        this.clearedMessagesCounter.increment(deletedCount);
+        this.notClearedMessagesCounter.increment(failedCount);
+        this.batchClearedMessagesCounter.increment(batchAttemptedCount);
+        logger.info("Platform: " + MessengerPlatform.TELEGRAM + ": cleared messages of chat id " + chatId
+                + ", deleted: " + deletedCount + ", failed: " + failedCount + ", in accepted batches: "
+                + batchAttemptedCount + ", left to the webhook reply: " + repliedCount);
+
+        // Messages that couldn't be deleted are most likely too old to ever be, so
+        // they are forgotten as well
+        userService.resetMessagesToClear(user, messagesToClear);
+        return lastDeletion;
+    }
+
+    /**
+     * @return true if Telegram deleted at least one of the messages, it doesn't
+     *         say which; false if they are left to be deleted one by one
+     */
+    private boolean deleteMessagesInBatch(final String chatId, final List<Integer> messageIds) {
+        if (!this.deleteMessagesSupported) {
+            return false;
+        }
+        final long startedAt = System.nanoTime();
+        boolean deleted = false;
+        try {
+            deleted = this.execute(new DeleteMessages(chatId, messageIds));
+            if (deleted) {
+                this.deleteMessagesConfirmed = true;
+            }
+        } catch (TelegramApiRequestException e) {
+            if (e.getErrorCode() != null && e.getErrorCode() == 404) {
+                logger.warn("Platform: " + MessengerPlatform.TELEGRAM
+                        + ": deleteMessages is not supported by the Bot API server, deleting one by one");
+                this.deleteMessagesSupported = false;
+            } else {
+                logger.error("Platform: " + MessengerPlatform.TELEGRAM + ", error message: " + e.getMessage());
+                logger.trace(e.getStackTrace());
+            }
+        } catch (TelegramApiException e) {
+            logger.error("Platform: " + MessengerPlatform.TELEGRAM + ", error message: " + e.getMessage());
+            logger.trace(e.getStackTrace());
+        } finally {
+            this.deleteMessagesCallTimer.record(startedAt, deleted);
+        }
+        return deleted;
+    }
+
+    // Runs up to deleteParallelism single deletes at a time
+    private int deleteMessagesOneByOne(final String chatId, final List<Integer> messageIds) {
+        final int parallelism = Math.min(this.deleteParallelism, messageIds.size());
+        final List<CompletableFuture<Integer>> deletions = new ArrayList<>(parallelism);
+        for (int worker = 0; worker < parallelism; ++worker) {
+            final int firstIndex = worker;
+            deletions.add(CompletableFuture.supplyAsync(() -> {
+                int deletedCount = 0;
+                for (int i = firstIndex; i < messageIds.size(); i += parallelism) {
+                    if (this.safeDeleteMessage(new DeleteMessage(chatId, messageIds.get(i)))) {
+                        ++deletedCount;
+                    }
+                }
+                return deletedCount;
+            }, this.ioExecutor));
+        }
+        return deletions.stream().mapToInt(CompletableFuture::join).sum();
     }
 
     private boolean safeDeleteMessage(DeleteMessage deleteMessageAction) {
-        logger.debug("inside safeDeleteMessage");
         logger.debug("delete messageId: " + deleteMessageAction.getMessageId() + ", chatId: "
                 + deleteMessageAction.getChatId());
+        final long startedAt = System.nanoTime();
+        boolean deleted = false;
         try {
-            return this.execute(deleteMessageAction);
+            deleted = this.execute(deleteMessageAction);
+            return deleted;
         } catch (TelegramApiException e) {
             logger.error("Platform: " + MessengerPlatform.TELEGRAM
                     + ", error message: " + e.getMessage());
             logger.trace(e.getStackTrace());
 
             return false;
+        } finally {
+            this.deleteMessageCallTimer.record(startedAt, deleted);
         }
     }
 
     // TODO: in future, when there's not only Spotify, add musicProviderPlatform
     // argument
-    private void processAuthorizationRequestMessage(final User user, final String chatId)
-            throws TelegramApiException, JsonMappingException, JsonProcessingException {
+    public void processAuthorizationRequestMessage(final UserSummary user, final String chatId)
+            throws TelegramApiException {
         this.sendResponseMessage(chatId, user,
                 "Please follow the [link](" + spotifyService.constructAuthorizationLink(user.getId().toString())
                         + ") to authorize Spotify\n"
@@ -228,55 +486,119 @@ public class TelegramBot extends TelegramWebhookBot {
 
     // TODO: in future, when there's not only Spotify, add musicProviderPlatform
     // argument
-    private void processLyricsRequestMessage(final User user, final String chatId)
+    public void processLyricsRequestMessage(final UserSummary userSummary, final String chatId)
             throws JsonProcessingException, JsonMappingException, ClientProtocolException, IOException,
             TelegramApiException {
-        SpotifyGetCurrentlyPlayingTrackResponse currentlyPlayingTrack = spotifyService
-                .getCurrentlyPlayingTrack(user);
+        final long startedAt = System.nanoTime();
+        try {
+            this.sendCurrentlyPlayingTrackLyrics(userService.getWithMusicProviderTokens(userSummary), chatId);
+        } finally {
+            this.lyricsTotalTimer.record(System.nanoTime() - startedAt, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    /**
+     * Once the track is known, the song info message is sent while the lyrics are
+     * being looked up. The lyrics are queued after the song info, so the send
+     * scheduler keeps them in order in the chat.
+     */
+    private void sendCurrentlyPlayingTrackLyrics(final User user, final String chatId)
+            throws JsonProcessingException, JsonMappingException, ClientProtocolException, IOException,
+            TelegramApiException {
+        final long spotifyStartedAt = System.nanoTime();
+        final SpotifyGetCurrentlyPlayingTrackResponse currentlyPlayingTrack;
+        try {
+            currentlyPlayingTrack = spotifyService.getCurrentlyPlayingTrack(user);
+        } finally {
+            this.spotifyStageTimer.record(System.nanoTime() - spotifyStartedAt, TimeUnit.NANOSECONDS);
+        }
 
         if (currentlyPlayingTrack == null) {
+            this.nothingPlayingCounter.increment();
             this.sendResponseMessage(chatId, user, "No song is currently playing");
             return;
         }
 
         final String songName = currentlyPlayingTrack.getItem().getName();
         final Artist[] artists = currentlyPlayingTrack.getItem().getArtists();
+        final String artistNames = TelegramBot.joinArtistNames(artists);
 
-        String artistNames = "";
-        for (int i = 0; i < artists.length; ++i) {
-            if (i == artists.length - 1) {
-                artistNames += artists[i].getName();
-            } else {
-                artistNames += artists[i].getName() + ", ";
-            }
-        }
+        final CompletableFuture<Optional<String>> lyricsLookup = this.lookUpSongLyrics(
+                currentlyPlayingTrack.getItem().getId(), songName, artistNames);
 
         String songInfoMessage = "";
 
         if (artists.length > 1) {
-            songInfoMessage = String.format("Song: %s\nArtists: %s", songName, artistNames);
+            songInfoMessage = String.format("Song: %s\nArtists: %s", TelegramLyricsFormatter.escapeHtml(songName),
+                    TelegramLyricsFormatter.escapeHtml(artistNames));
         } else {
-            songInfoMessage = String.format("Song: %s\nArtist: %s", songName, artistNames);
+            songInfoMessage = String.format("Song: %s\nArtist: %s", TelegramLyricsFormatter.escapeHtml(songName),
+                    TelegramLyricsFormatter.escapeHtml(artistNames));
         }
 
-        this.sendResponseMessage(chatId, user, songInfoMessage);
+        final long songInfoQueuedAt = System.nanoTime();
+        this.sendHtmlResponseMessage(chatId, user, songInfoMessage).whenComplete((message, e) -> this
+                .songInfoSendStageTimer.record(System.nanoTime() - songInfoQueuedAt, TimeUnit.NANOSECONDS));
 
         try {
-            final String lyrics = this.geniusService.getSongLyrics(songName, artistNames);
-            this.sendResponseMessage(chatId, user, lyrics);
-
-        } catch (IndexOutOfBoundsException noLyricsException) {
-            logger.debug("Platform: " + MessengerPlatform.TELEGRAM + ": no lyrics found");
-            this.sendResponseMessage(chatId, user, "No lyrics found for this song");
-        } catch (IOException lyricsFetchException) {
+            final Optional<String> lyrics = lyricsLookup.get(this.lyricsLookupTimeoutMilliseconds,
+                    TimeUnit.MILLISECONDS);
+            final long formatStartedAt = System.nanoTime();
+            // Each chunk is queued for sending as soon as it is formatted
+            if (lyrics.isPresent() && this.lyricsFormatter.format(lyrics.get(),
+                    lyricsChunk -> this.sendHtmlResponseMessage(chatId, user, lyricsChunk)) > 0) {
+                logger.debug("Platform: " + MessengerPlatform.TELEGRAM + ": lyrics queued");
+                this.lyricsFoundCounter.increment();
+            } else {
+                logger.debug("Platform: " + MessengerPlatform.TELEGRAM + ": no lyrics found");
+                this.lyricsNotFoundCounter.increment();
+                this.sendResponseMessage(chatId, user, "No lyrics found for this song");
+            }
+            this.lyricsFormatStageTimer.record(System.nanoTime() - formatStartedAt, TimeUnit.NANOSECONDS);
+        } catch (TimeoutException e) {
+            // The lookup goes on and caches the lyrics for the next request
+            logger.warn("Platform: " + MessengerPlatform.TELEGRAM + ": error with chat: " + chatId
+                    + ", lyrics lookup timed out after " + this.lyricsLookupTimeoutMilliseconds + " ms");
+            this.lyricsTimedOutCounter.increment();
+            this.sendResponseMessage(chatId, user, "Finding lyrics takes too long. Please try again in a minute");
+        } catch (ExecutionException e) {
             logger.error("Platform: " + MessengerPlatform.TELEGRAM + ": error with chat: " + chatId
-                    + ", error fetchingg lyrics, error message: " + lyricsFetchException.getMessage());
-            logger.trace(lyricsFetchException.getStackTrace());
+                    + ", error fetchingg lyrics, error message: " + e.getCause().getMessage());
+            logger.trace(e.getCause().getStackTrace());
+            this.lyricsFailedCounter.increment();
             this.sendResponseMessage(chatId, user, "Error occured while trying to find lyrics");
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
         }
     }
 
-    private static ReplyKeyboardMarkup constructDefaultReplyKeyboardMarkup() {
+    static String joinArtistNames(final Artist[] artists) {
+        String artistNames = "";
+        for (int i = 0; i < artists.length; ++i) {
+            if (i == artists.length - 1) {
+                artistNames += artists[i].getName();
+            } else {
+                artistNames += artists[i].getName() + ", ";
+            }
+        }
+        return artistNames;
+    }
+
+    private CompletableFuture<Optional<String>> lookUpSongLyrics(final String trackId, final String songName,
+            final String artistNames) {
+        final long queuedAt = System.nanoTime();
+        return CompletableFuture.supplyAsync(() -> {
+            try {
+                return this.lyricsService.getSongLyrics(trackId, songName, artistNames);
+            } catch (IOException e) {
+                throw new CompletionException(e);
+            } finally {
+                this.lyricsLookupStageTimer.record(System.nanoTime() - queuedAt, TimeUnit.NANOSECONDS);
+            }
+        }, this.lyricsLookupExecutor);
+    }
+
+    static ReplyKeyboardMarkup constructDefaultReplyKeyboardMarkup() {
         // Create ReplyKeyboardMarkup object
         final ReplyKeyboardMarkup keyboardMarkup = new ReplyKeyboardMarkup();
         keyboardMarkup.setResizeKeyboard(true);
@@ -288,9 +610,9 @@ public class TelegramBot extends TelegramWebhookBot {
         KeyboardRow keyboardRow = new KeyboardRow();
         // Set each button, you can also use KeyboardButton objects if you need
         // something else than text
-        keyboardRow.add(LYRICS_MESSAGE_INPUTS[0]);
-        keyboardRow.add(CLEAR_MESSAGE_INPUTS[0]);
-        keyboardRow.add(OPEN_SETTINGS_MESSAGE_INPUTS[0]);
+        keyboardRow.add(LyricsCommandHandler.COMMANDS.get(0));
+        keyboardRow.add(ClearCommandHandler.COMMANDS.get(0));
+        keyboardRow.add(OpenSettingsCommandHandler.COMMANDS.get(0));
 
         // Add the first row to the keyboard
         keyboard.add(keyboardRow);
@@ -301,7 +623,7 @@ public class TelegramBot extends TelegramWebhookBot {
         return keyboardMarkup;
     }
 
-    private static ReplyKeyboardMarkup constructSettingsReplyKeyboardMarkup(User user) {
+    public static ReplyKeyboardMarkup constructSettingsReplyKeyboardMarkup(final boolean autoclear) {
         final ReplyKeyboardMarkup keyboardMarkup = new ReplyKeyboardMarkup();
         keyboardMarkup.setResizeKeyboard(true);
 
@@ -309,8 +631,8 @@ public class TelegramBot extends TelegramWebhookBot {
 
         KeyboardRow keyboardRow = new KeyboardRow();
 
-        keyboardRow.add(CLOSE_SETTINGS_INPUTS[0]);
-        keyboardRow.add(TOGGLE_AUTOCLEAR_INPUTS[0] + (user.isAutoclear() ? " Off" : " On"));
+        keyboardRow.add(CloseSettingsCommandHandler.COMMANDS.get(0));
+        keyboardRow.add(ToggleAutoclearCommandHandler.COMMAND_PREFIXES.get(0) + (autoclear ? " Off" : " On"));
 
         keyboard.add(keyboardRow);
 
@@ -318,4 +640,31 @@ public class TelegramBot extends TelegramWebhookBot {
 
         return keyboardMarkup;
     }
+
+    private static class CommandTimers {
+        private final Timer successTimer;
+        private final Timer errorTimer;
+        private final Timer spotifyErrorTimer;
+
+        CommandTimers(final String command, final MeterRegistry meterRegistry) {
+            this.successTimer = CommandTimers.constructTimer(command, "success", meterRegistry);
+            this.errorTimer = CommandTimers.constructTimer(command, "error", meterRegistry);
+            this.spotifyErrorTimer = CommandTimers.constructTimer(command, "spotify_error", meterRegistry);
+        }
+
+        private static Timer constructTimer(final String command, final String result,
+                final MeterRegistry meterRegistry) {
+            return Timer.builder("telegram.commands").tag("command", command).tag("result", result)
+                    .description("Time to handle a command, not counting the sending of queued messages")
+                    .register(meterRegistry);
+        }
+
+        Timer get(final String result) {
+            return switch (result) {
+                case "success" -> this.successTimer;
+                case "spotify_error" -> this.spotifyErrorTimer;
+                default -> this.errorTimer;
+            };
+        }
+    }
 }
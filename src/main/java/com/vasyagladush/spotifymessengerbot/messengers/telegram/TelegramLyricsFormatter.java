@@ -0,0 +1,157 @@
+package com.vasyagladush.spotifymessengerbot.messengers.telegram;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.function.Consumer;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import com.vasyagladush.spotifymessengerbot.caches.ExpiringLruCache;
+
+import io.micrometer.core.instrument.MeterRegistry;
+
+/**
+ * Turns lyrics into messages for {@link org.telegram.telegrambots.meta.api.methods.ParseMode#HTML}:
+ * escapes them and splits them into chunks within Telegram's message length,
+ * at verse boundaries where possible, then at line boundaries. The chunks are
+ * cached by the lyrics text, so popular songs are formatted once.
+ */
+@Component
+public class TelegramLyricsFormatter {
+    public static final int MAX_MESSAGE_LENGTH = 4096;
+    private static final String VERSE_SEPARATOR = "\n\n";
+    private static final String LINE_SEPARATOR = "\n";
+
+    private final ExpiringLruCache<String, List<String>> cache;
+    private final long cacheTimeToLiveMilliseconds;
+
+    @Autowired
+    public TelegramLyricsFormatter(@Value("${LYRICS_FORMAT_CACHE_MAX_SIZE:1000}") int cacheMaxSize,
+            @Value("${LYRICS_FORMAT_CACHE_TTL_MS:86400000}") long cacheTimeToLiveMilliseconds,
+            MeterRegistry meterRegistry) {
+        this.cache = new ExpiringLruCache<>("lyrics.telegram.format", cacheMaxSize,
+                TelegramLyricsFormatter::estimateSize, meterRegistry);
+        this.cacheTimeToLiveMilliseconds = cacheTimeToLiveMilliseconds;
+    }
+
+    /**
+     * Passes each chunk to onChunk as soon as it is formatted, so the first one
+     * can be sent while the rest are still being formatted
+     *
+     * @return the number of chunks, 0 if the lyrics are blank
+     */
+    public int format(final String lyrics, final Consumer<String> onChunk) {
+        final List<String> cachedChunks = this.cache.get(lyrics);
+        if (cachedChunks != null) {
+            cachedChunks.forEach(onChunk);
+            return cachedChunks.size();
+        }
+
+        final List<String> chunks = new ArrayList<>();
+        final ChunkBuilder chunkBuilder = new ChunkBuilder(chunk -> {
+            chunks.add(chunk);
+            onChunk.accept(chunk);
+        });
+        for (final String verse : lyrics.strip().split(VERSE_SEPARATOR)) {
+            if (verse.isBlank()) {
+                continue;
+            }
+            final String escapedVerse = TelegramLyricsFormatter.escapeHtml(verse);
+            if (escapedVerse.length() <= MAX_MESSAGE_LENGTH) {
+                chunkBuilder.append(escapedVerse, VERSE_SEPARATOR);
+                continue;
+            }
+            // Too long for a message of its own, split it between its lines
+            for (final String line : verse.split(LINE_SEPARATOR)) {
+                final String escapedLine = TelegramLyricsFormatter.escapeHtml(line);
+                if (escapedLine.length() <= MAX_MESSAGE_LENGTH) {
+                    chunkBuilder.append(escapedLine, LINE_SEPARATOR);
+                } else {
+                    this.splitLine(line).forEach(part -> chunkBuilder.append(part, LINE_SEPARATOR));
+                }
+            }
+        }
+        chunkBuilder.flush();
+
+        this.cache.put(lyrics, Collections.unmodifiableList(chunks), this.cacheTimeToLiveMilliseconds);
+        return chunks.size();
+    }
+
+    public static String escapeHtml(final String text) {
+        final StringBuilder escapedText = new StringBuilder(text.length() + 16);
+        for (int i = 0; i < text.length(); ++i) {
+            TelegramLyricsFormatter.appendEscaped(escapedText, text.charAt(i));
+        }
+        return escapedText.toString();
+    }
+
+    private static void appendEscaped(final StringBuilder escapedText, final char c) {
+        switch (c) {
+            case '&' -> escapedText.append("&amp;");
+            case '<' -> escapedText.append("&lt;");
+            case '>' -> escapedText.append("&gt;");
+            default -> escapedText.append(c);
+        }
+    }
+
+    // A line without any boundary left is cut where it reaches the limit, but
+    // never inside an escaped character or a surrogate pair
+    private List<String> splitLine(final String line) {
+        final List<String> parts = new ArrayList<>();
+        final StringBuilder part = new StringBuilder();
+        final StringBuilder escapedChar = new StringBuilder();
+        for (int i = 0; i < line.length(); ++i) {
+            escapedChar.setLength(0);
+            final char c = line.charAt(i);
+            TelegramLyricsFormatter.appendEscaped(escapedChar, c);
+            if (Character.isHighSurrogate(c) && i + 1 < line.length()
+                    && Character.isLowSurrogate(line.charAt(i + 1))) {
+                escapedChar.append(line.charAt(++i));
+            }
+            if (part.length() + escapedChar.length() > MAX_MESSAGE_LENGTH) {
+                parts.add(part.toString());
+                part.setLength(0);
+            }
+            part.append(escapedChar);
+        }
+        if (part.length() > 0) {
+            parts.add(part.toString());
+        }
+        return parts;
+    }
+
+    private static long estimateSize(final List<String> chunks) {
+        return 64 + chunks.stream().mapToLong(chunk -> 48 + 2L * chunk.length()).sum();
+    }
+
+    private static class ChunkBuilder {
+        private final Consumer<String> onChunk;
+        private final StringBuilder chunk = new StringBuilder();
+
+        ChunkBuilder(Consumer<String> onChunk) {
+            this.onChunk = onChunk;
+        }
+
+        // The separator goes before the text unless it starts a new chunk
+        void append(final String text, final String separator) {
+            if (this.chunk.length() > 0
+                    && this.chunk.length() + separator.length() + text.length() > MAX_MESSAGE_LENGTH) {
+                this.flush();
+            }
+            if (this.chunk.length() > 0) {
+                this.chunk.append(separator);
+            }
+            this.chunk.append(text);
+        }
+
+        void flush() {
+            if (this.chunk.length() > 0) {
+                this.onChunk.accept(this.chunk.toString());
+                this.chunk.setLength(0);
+            }
+        }
+    }
+}
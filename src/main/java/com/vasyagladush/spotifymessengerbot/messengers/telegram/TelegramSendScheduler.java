@@ -0,0 +1,379 @@
+package com.vasyagladush.spotifymessengerbot.messengers.telegram;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.DependsOn;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.stereotype.Component;
+import org.telegram.telegrambots.meta.api.methods.send.SendMessage;
+import org.telegram.telegrambots.meta.api.objects.Message;
+import org.telegram.telegrambots.meta.bots.AbsSender;
+import org.telegram.telegrambots.meta.exceptions.TelegramApiRequestException;
+
+import com.vasyagladush.spotifymessengerbot.concurrency.TokenBucket;
+import com.vasyagladush.spotifymessengerbot.configurations.ExecutionConfiguration;
+import com.vasyagladush.spotifymessengerbot.metrics.ExternalCallTimer;
+import com.vasyagladush.spotifymessengerbot.models.MessengerPlatform;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PreDestroy;
+
+/**
+ * Queue of outgoing messages kept within Telegram's limits: a global rate for
+ * the whole bot and at most one message per interval to the same chat.
+ * Messages to the same chat are sent in the order they were queued; ones that
+ * queue up while the chat is paced are merged into one message when they fit.
+ * Messages rejected with 429 are sent again after the retry_after Telegram
+ * asks for.
+ */
+@Component
+// Shut down before the buffer, which tracks the messages sent meanwhile
+@DependsOn("messagesToClearWriteBehindBuffer")
+public class TelegramSendScheduler {
+    private static final Logger logger = LogManager.getLogger(TelegramSendScheduler.class);
+    private static final int MAX_MESSAGE_LENGTH = 4096;
+    private static final String MERGED_MESSAGES_SEPARATOR = "\n\n";
+
+    private final ExecutorService ioExecutor;
+    // Owns the queues below, so they are only accessed on its thread
+    private final ScheduledExecutorService scheduler = Executors
+            .newSingleThreadScheduledExecutor(new CustomizableThreadFactory("telegram-send-"));
+    private final TokenBucket globalRateLimit;
+    private final long globalPermitIntervalMilliseconds;
+    private final long chatIntervalMilliseconds;
+    private final int maxRetries;
+    private final long awaitTimeoutMilliseconds;
+
+    private final Map<String, ChatSends> chats = new HashMap<>();
+    private final Queue<ChatSends> chatsWaitingForPermit = new ArrayDeque<>();
+    private boolean permitPollScheduled;
+
+    // Read by callers waiting for the messages of their chat to be sent
+    private final ConcurrentHashMap<String, CompletableFuture<Message>> lastSends = new ConcurrentHashMap<>();
+    private final AtomicInteger queuedSends = new AtomicInteger();
+
+    private final Counter sentCounter;
+    private final Counter mergedCounter;
+    private final Counter retriedCounter;
+    private final Counter failedCounter;
+    private final ExternalCallTimer sendCallTimer;
+
+    @Autowired
+    public TelegramSendScheduler(@Qualifier(ExecutionConfiguration.IO_EXECUTOR) ExecutorService ioExecutor,
+            @Value("${TELEGRAM_SEND_RATE_PER_SECOND:30}") int permitsPerSecond,
+            @Value("${TELEGRAM_SEND_CHAT_INTERVAL_MS:1000}") long chatIntervalMilliseconds,
+            @Value("${TELEGRAM_SEND_MAX_RETRIES:3}") int maxRetries,
+            @Value("${TELEGRAM_SEND_AWAIT_TIMEOUT_MS:30000}") long awaitTimeoutMilliseconds,
+            MeterRegistry meterRegistry) {
+        this.ioExecutor = ioExecutor;
+        this.globalRateLimit = new TokenBucket(permitsPerSecond, permitsPerSecond);
+        this.globalPermitIntervalMilliseconds = Math.max(1, 1000 / permitsPerSecond);
+        this.chatIntervalMilliseconds = chatIntervalMilliseconds;
+        this.maxRetries = maxRetries;
+        this.awaitTimeoutMilliseconds = awaitTimeoutMilliseconds;
+
+        Gauge.builder("telegram.sends.queued", this.queuedSends, AtomicInteger::get)
+                .description("Telegram messages waiting to be sent").register(meterRegistry);
+        this.sentCounter = Counter.builder("telegram.sends").tag("result", "sent").register(meterRegistry);
+        this.mergedCounter = Counter.builder("telegram.sends").tag("result", "merged").register(meterRegistry);
+        this.retriedCounter = Counter.builder("telegram.sends").tag("result", "retried").register(meterRegistry);
+        this.failedCounter = Counter.builder("telegram.sends").tag("result", "failed").register(meterRegistry);
+        this.sendCallTimer = new ExternalCallTimer("telegram", "send_message", meterRegistry);
+    }
+
+    /**
+     * @param onSent called with the sent message before the returned future
+     *               completes; when several queued messages are merged into one,
+     *               only the first one's callback is called, as there is one
+     *               message to track
+     * @return completed with the sent message, which is shared by merged ones
+     */
+    public CompletableFuture<Message> send(final AbsSender sender, final SendMessage sendMessage,
+            final Consumer<Message> onSent) {
+        final PendingSend pendingSend = new PendingSend(sender, sendMessage, onSent);
+        final String chatId = sendMessage.getChatId();
+        this.queuedSends.incrementAndGet();
+        this.lastSends.put(chatId, pendingSend.future);
+        pendingSend.future.whenComplete((message, e) -> this.lastSends.remove(chatId, pendingSend.future));
+        try {
+            this.scheduler.execute(() -> this.enqueue(chatId, pendingSend));
+        } catch (RejectedExecutionException e) {
+            this.queuedSends.decrementAndGet();
+            pendingSend.future.completeExceptionally(e);
+        }
+        return pendingSend.future;
+    }
+
+    /**
+     * Waits until the messages queued for the chat so far are sent or have
+     * failed, so their callbacks have been called
+     *
+     * @return false if they weren't sent in time
+     */
+    public boolean awaitSent(final String chatId) throws InterruptedException {
+        final CompletableFuture<Message> lastSend = this.lastSends.get(chatId);
+        if (lastSend == null) {
+            return true;
+        }
+        try {
+            lastSend.get(this.awaitTimeoutMilliseconds, TimeUnit.MILLISECONDS);
+        } catch (ExecutionException e) {
+            // Reported to the sender through the future
+        } catch (TimeoutException e) {
+            return false;
+        }
+        return true;
+    }
+
+    public int getQueuedSends() {
+        return this.queuedSends.get();
+    }
+
+    private void enqueue(final String chatId, final PendingSend pendingSend) {
+        final ChatSends chat = this.chats.computeIfAbsent(chatId, ChatSends::new);
+        chat.queue.add(pendingSend);
+        this.trySend(chat);
+    }
+
+    private void trySend(final ChatSends chat) {
+        if (chat.inFlight || chat.waitingForPermit || chat.queue.isEmpty()) {
+            return;
+        }
+
+        final long delayMilliseconds = chat.nextSendAt - System.currentTimeMillis();
+        if (delayMilliseconds > 0) {
+            if (!chat.wakeUpScheduled) {
+                chat.wakeUpScheduled = true;
+                this.scheduler.schedule(() -> {
+                    chat.wakeUpScheduled = false;
+                    this.trySend(chat);
+                }, delayMilliseconds, TimeUnit.MILLISECONDS);
+            }
+            return;
+        }
+
+        if (!this.globalRateLimit.tryAcquire()) {
+            chat.waitingForPermit = true;
+            this.chatsWaitingForPermit.add(chat);
+            this.schedulePermitPoll();
+            return;
+        }
+        this.dispatch(chat);
+    }
+
+    // Chats get global permits in the order they started waiting for them
+    private void pollPermits() {
+        this.permitPollScheduled = false;
+        ChatSends chat;
+        while ((chat = this.chatsWaitingForPermit.peek()) != null) {
+            if (!this.globalRateLimit.tryAcquire()) {
+                this.schedulePermitPoll();
+                return;
+            }
+            this.chatsWaitingForPermit.poll();
+            chat.waitingForPermit = false;
+            if (!chat.inFlight && !chat.queue.isEmpty()) {
+                this.dispatch(chat);
+            }
+        }
+    }
+
+    private void schedulePermitPoll() {
+        if (!this.permitPollScheduled) {
+            this.permitPollScheduled = true;
+            this.scheduler.schedule(this::pollPermits, this.globalPermitIntervalMilliseconds, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private void dispatch(final ChatSends chat) {
+        final List<PendingSend> pendingSends = new ArrayList<>();
+        pendingSends.add(chat.queue.poll());
+        SendMessage sendMessage = pendingSends.get(0).sendMessage;
+        while (!chat.queue.isEmpty() && TelegramSendScheduler.canMerge(sendMessage, chat.queue.peek().sendMessage)) {
+            final PendingSend nextPendingSend = chat.queue.poll();
+            sendMessage = TelegramSendScheduler.merge(sendMessage, nextPendingSend.sendMessage);
+            pendingSends.add(nextPendingSend);
+        }
+
+        chat.inFlight = true;
+        final SendMessage mergedSendMessage = sendMessage;
+        final PendingSend firstPendingSend = pendingSends.get(0);
+        try {
+            this.ioExecutor.execute(() -> {
+                final long startedAt = System.nanoTime();
+                final Message message;
+                try {
+                    message = firstPendingSend.sender.execute(mergedSendMessage);
+                } catch (Throwable e) {
+                    this.sendCallTimer.record(startedAt, false);
+                    this.scheduler.execute(() -> this.onFailed(chat, pendingSends, e));
+                    return;
+                }
+                this.sendCallTimer.record(startedAt, true);
+                // Completed before the next message of the chat can be sent, which keeps
+                // the callbacks in order
+                this.complete(pendingSends, message);
+                this.scheduler.execute(() -> this.onSent(chat));
+            });
+        } catch (RejectedExecutionException e) {
+            this.onFailed(chat, pendingSends, e);
+        }
+    }
+
+    private void complete(final List<PendingSend> pendingSends, final Message message) {
+        try {
+            pendingSends.get(0).onSent.accept(message);
+        } catch (Throwable e) {
+            logger.error("Platform: " + MessengerPlatform.TELEGRAM + ": error in sent message callback, error message: "
+                    + e.getMessage());
+            logger.trace(e.getStackTrace());
+        }
+        this.sentCounter.increment();
+        this.mergedCounter.increment(pendingSends.size() - 1);
+        this.queuedSends.addAndGet(-pendingSends.size());
+        pendingSends.forEach(pendingSend -> pendingSend.future.complete(message));
+    }
+
+    private void onSent(final ChatSends chat) {
+        chat.inFlight = false;
+        chat.nextSendAt = System.currentTimeMillis() + this.chatIntervalMilliseconds;
+        if (!chat.queue.isEmpty()) {
+            this.trySend(chat);
+            return;
+        }
+        // Kept until the interval passes, so the next message is still paced
+        this.scheduler.schedule(() -> {
+            if (!chat.inFlight && chat.queue.isEmpty() && !chat.wakeUpScheduled && !chat.waitingForPermit) {
+                this.chats.remove(chat.chatId, chat);
+            }
+        }, this.chatIntervalMilliseconds, TimeUnit.MILLISECONDS);
+    }
+
+    private void onFailed(final ChatSends chat, final List<PendingSend> pendingSends, final Throwable e) {
+        chat.inFlight = false;
+        final PendingSend firstPendingSend = pendingSends.get(0);
+
+        if (e instanceof TelegramApiRequestException requestException && requestException.getErrorCode() != null
+                && requestException.getErrorCode() == 429 && firstPendingSend.attempts < this.maxRetries) {
+            final Integer retryAfter = requestException.getParameters() == null ? null
+                    : requestException.getParameters().getRetryAfter();
+            final long retryAfterMilliseconds = (retryAfter == null ? 1 : retryAfter) * 1000L;
+            logger.warn("Platform: " + MessengerPlatform.TELEGRAM + ": too many requests to chat " + chat.chatId
+                    + ", retry after " + retryAfterMilliseconds + " ms");
+            ++firstPendingSend.attempts;
+            this.retriedCounter.increment();
+            chat.nextSendAt = System.currentTimeMillis() + retryAfterMilliseconds;
+            // Back at the head of the queue to keep the order, merged again when sent
+            for (int i = pendingSends.size() - 1; i >= 0; --i) {
+                chat.queue.addFirst(pendingSends.get(i));
+            }
+            this.trySend(chat);
+            return;
+        }
+
+        logger.error("Platform: " + MessengerPlatform.TELEGRAM + ": error sending message to chat " + chat.chatId
+                + ", error message: " + e.getMessage());
+        logger.trace(e.getStackTrace());
+        this.failedCounter.increment(pendingSends.size());
+        this.queuedSends.addAndGet(-pendingSends.size());
+        pendingSends.forEach(pendingSend -> pendingSend.future.completeExceptionally(e));
+        chat.nextSendAt = System.currentTimeMillis() + this.chatIntervalMilliseconds;
+        this.trySend(chat);
+    }
+
+    private static boolean canMerge(final SendMessage first, final SendMessage second) {
+        return Objects.equals(first.getParseMode(), second.getParseMode())
+                && Objects.equals(first.getDisableWebPagePreview(), second.getDisableWebPagePreview())
+                && first.getReplyToMessageId() == null && second.getReplyToMessageId() == null
+                && first.getEntities() == null && second.getEntities() == null
+                && first.getText().length() + MERGED_MESSAGES_SEPARATOR.length()
+                        + second.getText().length() <= MAX_MESSAGE_LENGTH;
+    }
+
+    // The reply markup of the later message wins, as it would have replaced the
+    // earlier one anyway
+    private static SendMessage merge(final SendMessage first, final SendMessage second) {
+        return SendMessage.builder().chatId(first.getChatId())
+                .text(first.getText() + MERGED_MESSAGES_SEPARATOR + second.getText())
+                .parseMode(first.getParseMode()).disableWebPagePreview(first.getDisableWebPagePreview())
+                .replyMarkup(second.getReplyMarkup() != null ? second.getReplyMarkup() : first.getReplyMarkup())
+                .build();
+    }
+
+    @PreDestroy
+    public void shutdown() throws InterruptedException {
+        logger.info("Platform: " + MessengerPlatform.TELEGRAM + ": shutting down send scheduler, queued messages: "
+                + this.queuedSends.get());
+        // The messages of a chat are sent in order, so waiting for its last one is
+        // enough; messages queued in the meantime are waited for in the next round
+        final long deadline = System.currentTimeMillis() + this.awaitTimeoutMilliseconds;
+        List<CompletableFuture<Message>> lastSends;
+        while (!(lastSends = this.lastSends.values().stream().filter(lastSend -> !lastSend.isDone()).toList())
+                .isEmpty()) {
+            try {
+                CompletableFuture.allOf(lastSends.toArray(new CompletableFuture<?>[0]))
+                        .get(deadline - System.currentTimeMillis(), TimeUnit.MILLISECONDS);
+            } catch (ExecutionException e) {
+                // Reported to the senders through their futures
+            } catch (TimeoutException e) {
+                logger.warn("Platform: " + MessengerPlatform.TELEGRAM
+                        + ": send scheduler did not finish in time, dropping queued messages: "
+                        + this.queuedSends.get());
+                break;
+            }
+        }
+        this.scheduler.shutdownNow();
+    }
+
+    private static class PendingSend {
+        private final AbsSender sender;
+        private final SendMessage sendMessage;
+        private final Consumer<Message> onSent;
+        private final CompletableFuture<Message> future = new CompletableFuture<>();
+        private int attempts;
+
+        PendingSend(AbsSender sender, SendMessage sendMessage, Consumer<Message> onSent) {
+            this.sender = sender;
+            this.sendMessage = sendMessage;
+            this.onSent = onSent;
+        }
+    }
+
+    private static class ChatSends {
+        private final String chatId;
+        private final Deque<PendingSend> queue = new ArrayDeque<>();
+        private boolean inFlight;
+        private boolean wakeUpScheduled;
+        private boolean waitingForPermit;
+        private long nextSendAt;
+
+        ChatSends(String chatId) {
+            this.chatId = chatId;
+        }
+    }
+}
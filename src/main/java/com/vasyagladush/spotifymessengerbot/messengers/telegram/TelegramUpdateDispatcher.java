@@ -0,0 +1,149 @@
+package com.vasyagladush.spotifymessengerbot.messengers.telegram;
+
+import java.util.ArrayDeque;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import com.vasyagladush.spotifymessengerbot.configurations.ExecutionConfiguration;
+import com.vasyagladush.spotifymessengerbot.models.MessengerPlatform;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PreDestroy;
+
+/**
+ * Bounded in-process queue of incoming updates, processed on the
+ * {@link ExecutionConfiguration#TELEGRAM_UPDATE_EXECUTOR} executor.
+ * Updates of the same chat are run one after another in the order they were
+ * submitted, updates of different chats run in parallel.
+ */
+@Component
+public class TelegramUpdateDispatcher {
+    private static final Logger logger = LogManager.getLogger(TelegramUpdateDispatcher.class);
+
+    private final ExecutorService executor;
+    private final int capacity;
+    private final long shutdownTimeoutMilliseconds;
+
+    // A chat is present in the map while it has queued updates or one being
+    // processed; map operations on the same key are atomic, which guards the queue
+    private final ConcurrentHashMap<String, Queue<Runnable>> chatQueues = new ConcurrentHashMap<>();
+    private final AtomicInteger queuedUpdates = new AtomicInteger();
+
+    private final Counter acceptedCounter;
+    private final Counter rejectedCounter;
+    private final Counter failedCounter;
+
+    @Autowired
+    public TelegramUpdateDispatcher(
+            @Qualifier(ExecutionConfiguration.TELEGRAM_UPDATE_EXECUTOR) ExecutorService executor,
+            @Value("${TELEGRAM_UPDATE_QUEUE_CAPACITY:1000}") int capacity,
+            @Value("${TELEGRAM_UPDATE_SHUTDOWN_TIMEOUT_MS:30000}") long shutdownTimeoutMilliseconds,
+            MeterRegistry meterRegistry) {
+        this.executor = executor;
+        this.capacity = capacity;
+        this.shutdownTimeoutMilliseconds = shutdownTimeoutMilliseconds;
+
+        Gauge.builder("telegram.updates.queued", this.queuedUpdates, AtomicInteger::get)
+                .description("Telegram updates waiting or being processed").register(meterRegistry);
+        Gauge.builder("telegram.updates.chats", this.chatQueues, ConcurrentHashMap::size)
+                .description("Chats with Telegram updates waiting or being processed").register(meterRegistry);
+        this.acceptedCounter = Counter.builder("telegram.updates").tag("result", "accepted").register(meterRegistry);
+        this.rejectedCounter = Counter.builder("telegram.updates").tag("result", "rejected").register(meterRegistry);
+        this.failedCounter = Counter.builder("telegram.updates").tag("result", "failed").register(meterRegistry);
+    }
+
+    /**
+     * @return false if the queue is full and the update was not accepted, so the
+     *         caller can ask Telegram to redeliver it later
+     */
+    public boolean submit(final String chatId, final Runnable updateHandler) {
+        if (this.queuedUpdates.incrementAndGet() > this.capacity) {
+            this.queuedUpdates.decrementAndGet();
+            this.rejectedCounter.increment();
+            logger.warn("Platform: " + MessengerPlatform.TELEGRAM + ": update queue is full, rejecting update of chat "
+                    + chatId);
+            return false;
+        }
+
+        final boolean[] startDraining = { false };
+        this.chatQueues.compute(chatId, (key, queue) -> {
+            if (queue == null) {
+                queue = new ArrayDeque<>();
+                startDraining[0] = true;
+            }
+            queue.add(updateHandler);
+            return queue;
+        });
+
+        if (startDraining[0]) {
+            try {
+                this.executor.execute(() -> this.drain(chatId));
+            } catch (RejectedExecutionException e) {
+                // Shutting down, nothing is going to drain this chat anymore
+                final Queue<Runnable> droppedQueue = this.chatQueues.remove(chatId);
+                this.queuedUpdates.addAndGet(-(droppedQueue == null ? 0 : droppedQueue.size()));
+                this.rejectedCounter.increment();
+                return false;
+            }
+        }
+        this.acceptedCounter.increment();
+        return true;
+    }
+
+    public int getQueuedUpdates() {
+        return this.queuedUpdates.get();
+    }
+
+    private void drain(final String chatId) {
+        Runnable updateHandler;
+        while ((updateHandler = this.pollNext(chatId)) != null) {
+            try {
+                updateHandler.run();
+            } catch (Throwable e) {
+                this.failedCounter.increment();
+                logger.error("Platform: " + MessengerPlatform.TELEGRAM + ": error processing update of chat " + chatId
+                        + ", error message: " + e.getMessage());
+                logger.trace(e.getStackTrace());
+            } finally {
+                this.queuedUpdates.decrementAndGet();
+            }
+        }
+    }
+
+    // Removes the chat from the map once its queue is drained, so that the next
+    // submitted update of this chat starts a new drain
+    private Runnable pollNext(final String chatId) {
+        final Runnable[] next = { null };
+        this.chatQueues.computeIfPresent(chatId, (key, queue) -> {
+            next[0] = queue.poll();
+            return next[0] == null ? null : queue;
+        });
+        return next[0];
+    }
+
+    @PreDestroy
+    public void shutdown() throws InterruptedException {
+        logger.info("Platform: " + MessengerPlatform.TELEGRAM + ": shutting down update dispatcher, queued updates: "
+                + this.queuedUpdates.get());
+        this.executor.shutdown();
+        if (!this.executor.awaitTermination(this.shutdownTimeoutMilliseconds, TimeUnit.MILLISECONDS)) {
+            logger.warn("Platform: " + MessengerPlatform.TELEGRAM
+                    + ": update dispatcher did not finish in time, dropping queued updates: "
+                    + this.queuedUpdates.get());
+            this.executor.shutdownNow();
+        }
+    }
+}
@@ -0,0 +1,260 @@
+package com.vasyagladush.spotifymessengerbot.messengers.telegram;
+
+import java.util.List;
+import java.util.SortedSet;
+import java.util.TreeSet;
+import java.util.function.Consumer;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+import org.telegram.telegrambots.meta.api.methods.BotApiMethod;
+import org.telegram.telegrambots.meta.api.methods.updates.DeleteWebhook;
+import org.telegram.telegrambots.meta.api.methods.updates.GetUpdates;
+import org.telegram.telegrambots.meta.api.objects.Update;
+import org.telegram.telegrambots.meta.bots.AbsSender;
+import org.telegram.telegrambots.meta.exceptions.TelegramApiException;
+
+import com.vasyagladush.spotifymessengerbot.models.MessengerPlatform;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PreDestroy;
+
+/**
+ * Receives updates with getUpdates instead of the webhook, when
+ * TELEGRAM_INGESTION_MODE=polling. Updates are fetched in batches and handed to
+ * the {@link TelegramUpdateDispatcher} like webhook updates are. An update is
+ * confirmed to Telegram, by asking for the ones after it, only once the
+ * dispatcher has accepted it; when the queue is full the rest of the batch is
+ * fetched again after a pause. On shutdown the updates still queued are waited
+ * for, and only the ones before the first unfinished update are confirmed; the
+ * rest are fetched again on the next start, so a few may be handled twice.
+ */
+@Component
+@ConditionalOnProperty(name = "TELEGRAM_INGESTION_MODE", havingValue = TelegramUpdatePoller.INGESTION_MODE)
+public class TelegramUpdatePoller {
+    public static final String INGESTION_MODE = "polling";
+
+    // Most updates Telegram returns at once
+    private static final int MAX_BATCH_SIZE = 100;
+    private static final int MAX_BACKOFF_MULTIPLIER = 32;
+
+    private static final Logger logger = LogManager.getLogger(TelegramUpdatePoller.class);
+
+    private final AbsSender sender;
+    private final Consumer<Update> updateHandler;
+    private final TelegramUpdateDispatcher dispatcher;
+    private final int batchSize;
+    private final int timeoutSeconds;
+    private final long backoffMilliseconds;
+    private final long shutdownTimeoutMilliseconds;
+
+    private final Counter batchesCounter;
+    private final Counter failedBatchesCounter;
+    private final DistributionSummary batchSizeSummary;
+
+    private volatile boolean running;
+    private Thread thread;
+    // update_id of the next update to fetch, only used by the polling thread
+    private int offset;
+    // Accepted by the dispatcher but not handled yet, guarded by itself
+    private final SortedSet<Integer> unfinishedUpdateIds = new TreeSet<>();
+
+    @Autowired
+    public TelegramUpdatePoller(TelegramBot telegramBot, TelegramUpdateDispatcher dispatcher,
+            @Value("${TELEGRAM_POLLING_BATCH_SIZE:100}") int batchSize,
+            @Value("${TELEGRAM_POLLING_TIMEOUT_S:30}") int timeoutSeconds,
+            @Value("${TELEGRAM_POLLING_BACKOFF_MS:1000}") long backoffMilliseconds,
+            @Value("${TELEGRAM_POLLING_SHUTDOWN_TIMEOUT_MS:30000}") long shutdownTimeoutMilliseconds,
+            MeterRegistry meterRegistry) {
+        // Nothing waits for the reply like the webhook response does
+        this(telegramBot, update -> {
+            final BotApiMethod<?> method = telegramBot.onWebhookUpdateReceived(update);
+            if (method != null) {
+                telegramBot.executeQuietly(method);
+            }
+        }, dispatcher, batchSize, timeoutSeconds, backoffMilliseconds, shutdownTimeoutMilliseconds, meterRegistry);
+    }
+
+    TelegramUpdatePoller(AbsSender sender, Consumer<Update> updateHandler, TelegramUpdateDispatcher dispatcher,
+            int batchSize, int timeoutSeconds, long backoffMilliseconds, long shutdownTimeoutMilliseconds,
+            MeterRegistry meterRegistry) {
+        this.sender = sender;
+        this.updateHandler = updateHandler;
+        this.dispatcher = dispatcher;
+        this.batchSize = Math.max(1, Math.min(batchSize, MAX_BATCH_SIZE));
+        this.timeoutSeconds = timeoutSeconds;
+        this.backoffMilliseconds = backoffMilliseconds;
+        this.shutdownTimeoutMilliseconds = shutdownTimeoutMilliseconds;
+
+        this.batchesCounter = Counter.builder("telegram.polling.batches").tag("result", "received")
+                .register(meterRegistry);
+        this.failedBatchesCounter = Counter.builder("telegram.polling.batches").tag("result", "failed")
+                .register(meterRegistry);
+        this.batchSizeSummary = DistributionSummary.builder("telegram.polling.batch.size")
+                .description("Updates received with one getUpdates call").register(meterRegistry);
+    }
+
+    // Started once the application is ready, so no update comes in half set up
+    @EventListener(ApplicationReadyEvent.class)
+    public synchronized void start() {
+        if (this.running) {
+            return;
+        }
+        this.running = true;
+        this.thread = new Thread(this::poll, "telegram-poller");
+        this.thread.start();
+    }
+
+    @PreDestroy
+    public synchronized void stop() throws InterruptedException {
+        if (!this.running) {
+            return;
+        }
+        this.running = false;
+        this.thread.interrupt();
+        // A long poll in progress isn't interrupted, it ends by its timeout
+        this.thread.join(this.timeoutSeconds * 1000L + this.backoffMilliseconds + this.shutdownTimeoutMilliseconds);
+    }
+
+    private void poll() {
+        logger.info("Platform: " + MessengerPlatform.TELEGRAM + ": receiving updates by polling, batch size: "
+                + this.batchSize);
+        int failedAttempts = 0;
+        // getUpdates doesn't work while a webhook is set
+        while (this.running && !this.call(new DeleteWebhook())) {
+            if (!this.pause(++failedAttempts)) {
+                return;
+            }
+        }
+
+        failedAttempts = 0;
+        while (this.running) {
+            final List<Update> updates;
+            try {
+                updates = this.sender.execute(GetUpdates.builder().offset(this.offset).limit(this.batchSize)
+                        .timeout(this.timeoutSeconds).build());
+            } catch (TelegramApiException e) {
+                this.failedBatchesCounter.increment();
+                logger.error("Platform: " + MessengerPlatform.TELEGRAM + ": error getting updates, error message: "
+                        + e.getMessage());
+                logger.trace(e.getStackTrace());
+                if (!this.pause(++failedAttempts)) {
+                    break;
+                }
+                continue;
+            }
+            failedAttempts = 0;
+            this.batchesCounter.increment();
+            this.batchSizeSummary.record(updates.size());
+
+            if (!this.dispatch(updates) && !this.pause(1)) {
+                break;
+            }
+        }
+
+        // The offset of the last batch is only sent with the next call. Updates still
+        // queued when the dispatcher shuts down are dropped, so they are left for
+        // the next start to fetch again
+        Thread.interrupted();
+        final int confirmedOffset = this.awaitUnfinishedUpdates();
+        if (confirmedOffset != 0) {
+            this.call(GetUpdates.builder().offset(confirmedOffset).limit(1).timeout(0).build());
+        }
+        if (confirmedOffset != this.offset) {
+            logger.warn("Platform: " + MessengerPlatform.TELEGRAM + ": updates from id " + confirmedOffset
+                    + " on were not handled in time, they are going to be fetched again");
+        }
+        logger.info("Platform: " + MessengerPlatform.TELEGRAM + ": stopped polling updates");
+    }
+
+    /**
+     * @return false if the dispatcher is full, in which case the offset is left
+     *         at the first update it didn't accept
+     */
+    private boolean dispatch(final List<Update> updates) {
+        for (final Update update : updates) {
+            if (update.hasMessage()) {
+                final Integer updateId = update.getUpdateId();
+                synchronized (this.unfinishedUpdateIds) {
+                    this.unfinishedUpdateIds.add(updateId);
+                }
+                final boolean accepted = this.dispatcher.submit(update.getMessage().getChatId().toString(), () -> {
+                    try {
+                        this.updateHandler.accept(update);
+                    } finally {
+                        this.onFinished(updateId);
+                    }
+                });
+                if (!accepted) {
+                    this.onFinished(updateId);
+                    return false;
+                }
+            }
+            this.offset = update.getUpdateId() + 1;
+        }
+        return true;
+    }
+
+    private void onFinished(final Integer updateId) {
+        synchronized (this.unfinishedUpdateIds) {
+            this.unfinishedUpdateIds.remove(updateId);
+            if (this.unfinishedUpdateIds.isEmpty()) {
+                this.unfinishedUpdateIds.notifyAll();
+            }
+        }
+    }
+
+    /**
+     * @return the offset to confirm: the first update not handled within the
+     *         shutdown timeout, or the next one to fetch if all were handled
+     */
+    private int awaitUnfinishedUpdates() {
+        final long deadline = System.currentTimeMillis() + this.shutdownTimeoutMilliseconds;
+        synchronized (this.unfinishedUpdateIds) {
+            long remainingMilliseconds = this.shutdownTimeoutMilliseconds;
+            while (!this.unfinishedUpdateIds.isEmpty() && remainingMilliseconds > 0) {
+                try {
+                    this.unfinishedUpdateIds.wait(remainingMilliseconds);
+                } catch (InterruptedException e) {
+                    // Stopping anyway, what was handled so far is confirmed
+                    break;
+                }
+                remainingMilliseconds = deadline - System.currentTimeMillis();
+            }
+            return this.unfinishedUpdateIds.isEmpty() ? this.offset : this.unfinishedUpdateIds.first();
+        }
+    }
+
+    private boolean call(final BotApiMethod<?> method) {
+        try {
+            this.sender.execute(method);
+            return true;
+        } catch (TelegramApiException e) {
+            logger.error("Platform: " + MessengerPlatform.TELEGRAM + ": error calling " + method.getMethod()
+                    + ", error message: " + e.getMessage());
+            logger.trace(e.getStackTrace());
+            return false;
+        }
+    }
+
+    /**
+     * @return false if interrupted, as the poller is being stopped
+     */
+    private boolean pause(final int attempt) {
+        final long multiplier = Math.min(1L << Math.min(attempt - 1, 30), MAX_BACKOFF_MULTIPLIER);
+        try {
+            Thread.sleep(this.backoffMilliseconds * multiplier);
+            return true;
+        } catch (InterruptedException e) {
+            return false;
+        }
+    }
+}
@@ -0,0 +1,49 @@
+package com.vasyagladush.spotifymessengerbot.messengers.telegram;
+
+import org.telegram.telegrambots.meta.api.methods.BotApiMethod;
+
+/**
+ * Hands the method an update handler wants to answer with over to the webhook
+ * request, which can return it as the response body if it is still waiting.
+ * Telegram then calls the method itself, which saves a request to the Bot API,
+ * but its result is never seen by the bot.
+ */
+public class TelegramWebhookReply {
+    private BotApiMethod<?> method;
+    private boolean closed;
+
+    /**
+     * @return false if the webhook request is no longer waiting, so the caller
+     *         has to call the method itself
+     */
+    public synchronized boolean offer(final BotApiMethod<?> method) {
+        if (this.closed) {
+            return false;
+        }
+        this.method = method;
+        this.closed = true;
+        this.notifyAll();
+        return true;
+    }
+
+    // For when the webhook request is not going to wait; no method is accepted
+    // after this
+    public synchronized void close() {
+        this.closed = true;
+    }
+
+    /**
+     * @return the offered method, or null if there is none or it wasn't offered
+     *         in time; no method is accepted after this returns
+     */
+    public synchronized BotApiMethod<?> await(final long timeoutMilliseconds) throws InterruptedException {
+        final long deadline = System.currentTimeMillis() + timeoutMilliseconds;
+        long remainingMilliseconds = timeoutMilliseconds;
+        while (!this.closed && remainingMilliseconds > 0) {
+            this.wait(remainingMilliseconds);
+            remainingMilliseconds = deadline - System.currentTimeMillis();
+        }
+        this.closed = true;
+        return this.method;
+    }
+}
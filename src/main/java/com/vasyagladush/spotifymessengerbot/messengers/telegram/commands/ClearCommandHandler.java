@@ -0,0 +1,37 @@
+package com.vasyagladush.spotifymessengerbot.messengers.telegram.commands;
+
+import java.io.IOException;
+import java.util.List;
+
+import org.springframework.stereotype.Component;
+import org.telegram.telegrambots.meta.api.methods.BotApiMethod;
+import org.telegram.telegrambots.meta.exceptions.TelegramApiException;
+
+import com.vasyagladush.spotifymessengerbot.messengers.telegram.TelegramBot;
+import com.vasyagladush.spotifymessengerbot.models.UserSummary;
+
+@Component
+public class ClearCommandHandler implements CommandHandler {
+    public static final List<String> COMMANDS = List.of("Clear", "/clear");
+
+    @Override
+    public String getName() {
+        return "clear";
+    }
+
+    @Override
+    public List<String> getCommands() {
+        return ClearCommandHandler.COMMANDS;
+    }
+
+    @Override
+    public boolean mayReply() {
+        return true;
+    }
+
+    @Override
+    public BotApiMethod<?> handle(final TelegramBot bot, final UserSummary user, final String chatId,
+            final String messageText) throws IOException, TelegramApiException {
+        return bot.clearMessagesMarkedAsToClear(chatId, user, true);
+    }
+}
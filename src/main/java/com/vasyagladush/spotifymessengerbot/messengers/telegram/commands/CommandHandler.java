@@ -0,0 +1,41 @@
+package com.vasyagladush.spotifymessengerbot.messengers.telegram.commands;
+
+import java.io.IOException;
+import java.util.List;
+
+import org.telegram.telegrambots.meta.api.methods.BotApiMethod;
+import org.telegram.telegrambots.meta.exceptions.TelegramApiException;
+
+import com.vasyagladush.spotifymessengerbot.messengers.telegram.TelegramBot;
+import com.vasyagladush.spotifymessengerbot.models.UserSummary;
+
+/**
+ * Handles the text messages that match one of its commands. Every handler bean
+ * is registered in {@link CommandRegistry}.
+ */
+public interface CommandHandler {
+    String getName();
+
+    // Message texts handled when they are equal to one of these
+    List<String> getCommands();
+
+    // Message texts handled when they start with one of these, e.g.
+    // "Autoclear On"
+    default List<String> getCommandPrefixes() {
+        return List.of();
+    }
+
+    // Whether handle may return a method; the webhook request only waits for the
+    // update to be processed if so
+    default boolean mayReply() {
+        return false;
+    }
+
+    /**
+     * @param messageText the trimmed message text
+     * @return the last method of the flow if its result isn't needed, see
+     *         {@link TelegramBot#onWebhookUpdateReceived}
+     */
+    BotApiMethod<?> handle(TelegramBot bot, UserSummary user, String chatId, String messageText)
+            throws IOException, TelegramApiException;
+}
@@ -0,0 +1,61 @@
+package com.vasyagladush.spotifymessengerbot.messengers.telegram.commands;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+/**
+ * Finds the handler of a message text: a hash lookup of the exact commands
+ * first, then the longest matching command prefix. Built once at startup;
+ * commands claimed by two handlers fail it.
+ */
+@Component
+public class CommandRegistry {
+    private static final Logger logger = LogManager.getLogger(CommandRegistry.class);
+
+    private final Map<String, CommandHandler> handlersByCommand = new HashMap<>();
+    private final PrefixTrie<CommandHandler> handlersByCommandPrefix = new PrefixTrie<>();
+    private final List<String> handlerNames;
+
+    @Autowired
+    public CommandRegistry(List<CommandHandler> handlers) {
+        for (final CommandHandler handler : handlers) {
+            for (final String command : handler.getCommands()) {
+                CommandRegistry.checkNotRegistered(command, handler, this.handlersByCommand.put(command, handler));
+            }
+            for (final String commandPrefix : handler.getCommandPrefixes()) {
+                CommandRegistry.checkNotRegistered(commandPrefix, handler,
+                        this.handlersByCommandPrefix.put(commandPrefix, handler));
+            }
+        }
+        logger.info("Commands: " + this.handlersByCommand.keySet() + ", command prefixes: "
+                + handlers.stream().flatMap(handler -> handler.getCommandPrefixes().stream()).toList());
+        this.handlerNames = handlers.stream().map(CommandHandler::getName).distinct().toList();
+    }
+
+    private static void checkNotRegistered(final String command, final CommandHandler handler,
+            final CommandHandler previousHandler) {
+        if (previousHandler != null) {
+            throw new IllegalStateException("Command \"" + command + "\" is handled by both "
+                    + previousHandler.getName() + " and " + handler.getName());
+        }
+    }
+
+    public List<String> getHandlerNames() {
+        return this.handlerNames;
+    }
+
+    /**
+     * @param messageText the trimmed message text
+     * @return null if no handler matches
+     */
+    public CommandHandler find(final String messageText) {
+        final CommandHandler handler = this.handlersByCommand.get(messageText);
+        return handler != null ? handler : this.handlersByCommandPrefix.findByLongestPrefixOf(messageText);
+    }
+}
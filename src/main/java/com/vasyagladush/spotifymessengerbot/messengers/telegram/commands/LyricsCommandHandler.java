@@ -0,0 +1,36 @@
+package com.vasyagladush.spotifymessengerbot.messengers.telegram.commands;
+
+import java.io.IOException;
+import java.util.List;
+
+import org.springframework.stereotype.Component;
+import org.telegram.telegrambots.meta.api.methods.BotApiMethod;
+import org.telegram.telegrambots.meta.exceptions.TelegramApiException;
+
+import com.vasyagladush.spotifymessengerbot.messengers.telegram.TelegramBot;
+import com.vasyagladush.spotifymessengerbot.models.UserSummary;
+
+@Component
+public class LyricsCommandHandler implements CommandHandler {
+    public static final List<String> COMMANDS = List.of("Lyrics", "/lyrics");
+
+    @Override
+    public String getName() {
+        return "lyrics";
+    }
+
+    @Override
+    public List<String> getCommands() {
+        return LyricsCommandHandler.COMMANDS;
+    }
+
+    @Override
+    public BotApiMethod<?> handle(final TelegramBot bot, final UserSummary user, final String chatId,
+            final String messageText) throws IOException, TelegramApiException {
+        if (user.isAutoclear()) {
+            bot.clearMessagesMarkedAsToClear(chatId, user, false);
+        }
+        bot.processLyricsRequestMessage(user, chatId);
+        return null;
+    }
+}
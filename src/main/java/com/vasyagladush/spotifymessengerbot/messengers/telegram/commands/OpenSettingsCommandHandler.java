@@ -0,0 +1,34 @@
+package com.vasyagladush.spotifymessengerbot.messengers.telegram.commands;
+
+import java.io.IOException;
+import java.util.List;
+
+import org.springframework.stereotype.Component;
+import org.telegram.telegrambots.meta.api.methods.BotApiMethod;
+import org.telegram.telegrambots.meta.exceptions.TelegramApiException;
+
+import com.vasyagladush.spotifymessengerbot.messengers.telegram.TelegramBot;
+import com.vasyagladush.spotifymessengerbot.models.UserSummary;
+
+@Component
+public class OpenSettingsCommandHandler implements CommandHandler {
+    public static final List<String> COMMANDS = List.of("Settings");
+
+    @Override
+    public String getName() {
+        return "settings";
+    }
+
+    @Override
+    public List<String> getCommands() {
+        return OpenSettingsCommandHandler.COMMANDS;
+    }
+
+    @Override
+    public BotApiMethod<?> handle(final TelegramBot bot, final UserSummary user, final String chatId,
+            final String messageText) throws IOException, TelegramApiException {
+        bot.sendResponseMessage(chatId, user, "Please configure the settings now",
+                TelegramBot.constructSettingsReplyKeyboardMarkup(user.isAutoclear()));
+        return null;
+    }
+}
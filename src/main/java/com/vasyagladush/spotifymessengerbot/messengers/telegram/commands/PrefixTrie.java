@@ -0,0 +1,73 @@
+package com.vasyagladush.spotifymessengerbot.messengers.telegram.commands;
+
+import java.util.Arrays;
+
+/**
+ * Finds the value of the longest key that a text starts with, in one pass over
+ * the text however many keys there are. Built once and only read afterwards,
+ * so it isn't synchronized.
+ */
+class PrefixTrie<V> {
+    private final Node<V> root = new Node<>();
+
+    /**
+     * @return the value previously put for the key, or null
+     */
+    V put(final String key, final V value) {
+        Node<V> node = this.root;
+        for (int i = 0; i < key.length(); ++i) {
+            node = node.getOrAddChild(key.charAt(i));
+        }
+        final V previousValue = node.value;
+        node.value = value;
+        return previousValue;
+    }
+
+    /**
+     * @return the value of the longest key the text starts with, or null
+     */
+    V findByLongestPrefixOf(final String text) {
+        Node<V> node = this.root;
+        V value = node.value;
+        for (int i = 0; i < text.length(); ++i) {
+            node = node.getChild(text.charAt(i));
+            if (node == null) {
+                break;
+            }
+            if (node.value != null) {
+                value = node.value;
+            }
+        }
+        return value;
+    }
+
+    // Commands share few characters, so children are kept in small arrays
+    // scanned in order instead of a map of boxed characters
+    private static class Node<V> {
+        private char[] childKeys = new char[0];
+        @SuppressWarnings("unchecked")
+        private Node<V>[] children = (Node<V>[]) new Node<?>[0];
+        private V value;
+
+        Node<V> getChild(final char key) {
+            for (int i = 0; i < this.childKeys.length; ++i) {
+                if (this.childKeys[i] == key) {
+                    return this.children[i];
+                }
+            }
+            return null;
+        }
+
+        Node<V> getOrAddChild(final char key) {
+            Node<V> child = this.getChild(key);
+            if (child == null) {
+                child = new Node<>();
+                this.childKeys = Arrays.copyOf(this.childKeys, this.childKeys.length + 1);
+                this.children = Arrays.copyOf(this.children, this.children.length + 1);
+                this.childKeys[this.childKeys.length - 1] = key;
+                this.children[this.children.length - 1] = child;
+            }
+            return child;
+        }
+    }
+}
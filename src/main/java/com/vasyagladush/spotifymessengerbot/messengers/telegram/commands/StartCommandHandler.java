@@ -0,0 +1,33 @@
+package com.vasyagladush.spotifymessengerbot.messengers.telegram.commands;
+
+import java.io.IOException;
+import java.util.List;
+
+import org.springframework.stereotype.Component;
+import org.telegram.telegrambots.meta.api.methods.BotApiMethod;
+import org.telegram.telegrambots.meta.exceptions.TelegramApiException;
+
+import com.vasyagladush.spotifymessengerbot.messengers.telegram.TelegramBot;
+import com.vasyagladush.spotifymessengerbot.models.UserSummary;
+
+@Component
+public class StartCommandHandler implements CommandHandler {
+    public static final List<String> COMMANDS = List.of("/start");
+
+    @Override
+    public String getName() {
+        return "start";
+    }
+
+    @Override
+    public List<String> getCommands() {
+        return StartCommandHandler.COMMANDS;
+    }
+
+    @Override
+    public BotApiMethod<?> handle(final TelegramBot bot, final UserSummary user, final String chatId,
+            final String messageText) throws IOException, TelegramApiException {
+        bot.processAuthorizationRequestMessage(user, chatId);
+        return null;
+    }
+}
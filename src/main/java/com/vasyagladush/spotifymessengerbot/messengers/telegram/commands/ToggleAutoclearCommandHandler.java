@@ -0,0 +1,50 @@
+package com.vasyagladush.spotifymessengerbot.messengers.telegram.commands;
+
+import java.io.IOException;
+import java.util.List;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+import org.telegram.telegrambots.meta.api.methods.BotApiMethod;
+import org.telegram.telegrambots.meta.exceptions.TelegramApiException;
+
+import com.vasyagladush.spotifymessengerbot.messengers.telegram.TelegramBot;
+import com.vasyagladush.spotifymessengerbot.models.UserSummary;
+import com.vasyagladush.spotifymessengerbot.services.UserService;
+
+// The settings keyboard sends "Autoclear On" or "Autoclear Off", either toggles
+@Component
+public class ToggleAutoclearCommandHandler implements CommandHandler {
+    public static final List<String> COMMAND_PREFIXES = List.of("Autoclear", "/autoclear");
+
+    private final UserService userService;
+
+    @Autowired
+    public ToggleAutoclearCommandHandler(UserService userService) {
+        this.userService = userService;
+    }
+
+    @Override
+    public String getName() {
+        return "autoclear";
+    }
+
+    @Override
+    public List<String> getCommands() {
+        return List.of();
+    }
+
+    @Override
+    public List<String> getCommandPrefixes() {
+        return ToggleAutoclearCommandHandler.COMMAND_PREFIXES;
+    }
+
+    @Override
+    public BotApiMethod<?> handle(final TelegramBot bot, final UserSummary user, final String chatId,
+            final String messageText) throws IOException, TelegramApiException {
+        final boolean autoclear = this.userService.toggleAutoclear(user);
+        bot.sendResponseMessage(chatId, user, "Autoclear is turned " + (autoclear ? "on" : "off"),
+                TelegramBot.constructSettingsReplyKeyboardMarkup(autoclear));
+        return null;
+    }
+}
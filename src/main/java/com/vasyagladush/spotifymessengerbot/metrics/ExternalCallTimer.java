@@ -0,0 +1,38 @@
+package com.vasyagladush.spotifymessengerbot.metrics;
+
+import java.util.concurrent.TimeUnit;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+
+/**
+ * Latency of the calls to one operation of an external service, published as
+ * the external.calls timer tagged with the dependency, the operation and the
+ * result of the call, "success" or "failure". Retries and rate limit waits are
+ * part of the call.
+ */
+public class ExternalCallTimer {
+    public static final String NAME = "external.calls";
+
+    private final Timer successTimer;
+    private final Timer failureTimer;
+
+    public ExternalCallTimer(final String dependency, final String operation, final MeterRegistry meterRegistry) {
+        this.successTimer = ExternalCallTimer.constructTimer(dependency, operation, "success", meterRegistry);
+        this.failureTimer = ExternalCallTimer.constructTimer(dependency, operation, "failure", meterRegistry);
+    }
+
+    private static Timer constructTimer(final String dependency, final String operation, final String result,
+            final MeterRegistry meterRegistry) {
+        return Timer.builder(ExternalCallTimer.NAME).tag("dependency", dependency).tag("operation", operation)
+                .tag("result", result).description("Calls to external services").register(meterRegistry);
+    }
+
+    /**
+     * @param startedAt System.nanoTime() before the call
+     */
+    public void record(final long startedAt, final boolean success) {
+        (success ? this.successTimer : this.failureTimer).record(System.nanoTime() - startedAt,
+                TimeUnit.NANOSECONDS);
+    }
+}
@@ -0,0 +1,36 @@
+package com.vasyagladush.spotifymessengerbot.models;
+
+import java.util.Date;
+
+import jakarta.persistence.Column;
+import jakarta.persistence.Entity;
+import jakarta.persistence.Id;
+import jakarta.persistence.Table;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.NonNull;
+import lombok.Setter;
+
+@Entity
+@Getter
+@Setter
+@NoArgsConstructor
+@Table(name = "lyrics")
+public class Lyrics {
+    // Music provider track id, e.g. Spotify track id
+    @Id
+    @NonNull
+    @Column(name = "track_id", nullable = false)
+    private String trackId;
+
+    @NonNull
+    @Column(name = "lyrics", nullable = false)
+    private String lyrics;
+
+    @Column(name = "source_url")
+    private String sourceUrl;
+
+    @NonNull
+    @Column(name = "fetched_at", nullable = false)
+    private Date fetchedAt;
+}
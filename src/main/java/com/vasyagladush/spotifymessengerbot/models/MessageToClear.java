@@ -0,0 +1,39 @@
+package com.vasyagladush.spotifymessengerbot.models;
+
+import java.util.UUID;
+
+import jakarta.persistence.Column;
+import jakarta.persistence.Entity;
+import jakarta.persistence.GeneratedValue;
+import jakarta.persistence.GenerationType;
+import jakarta.persistence.Id;
+import jakarta.persistence.Table;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.NonNull;
+import lombok.Setter;
+
+// A messenger message (sent by the user or by the bot) to be deleted on the next clear
+@Entity
+@Getter
+@Setter
+@NoArgsConstructor
+@Table(name = "chat_messages_to_clear")
+public class MessageToClear {
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private Long id;
+
+    @NonNull
+    @Column(name = "user_id", nullable = false)
+    private UUID userId;
+
+    @NonNull
+    @Column(name = "message_id", nullable = false)
+    private Integer messageId;
+
+    public MessageToClear(@NonNull UUID userId, @NonNull Integer messageId) {
+        this.userId = userId;
+        this.messageId = messageId;
+    }
+}
@@ -21,7 +21,7 @@ import lombok.Setter;
 @NoArgsConstructor
 @Table(name = "users", uniqueConstraints = {
         @UniqueConstraint(columnNames = { "messenger_user_id", "messenger_platform", "music_provider_platform" }) })
-public class User {
+public class User implements UserSummary {
     @Id
     @NonNull
     @UuidGenerator(style = UuidGenerator.Style.RANDOM)
@@ -62,6 +62,8 @@ public class User {
     @Column(name = "autoclear", nullable = false)
     private boolean autoclear;
 
-    @Column(name = "messages_to_clear")
-    private String messagesToClear;
+    // Only written by UserService.markSeen, so saving a cached copy of the user
+    // doesn't move it back
+    @Column(name = "last_seen_at", insertable = false, updatable = false)
+    private Date lastSeenAt;
 }
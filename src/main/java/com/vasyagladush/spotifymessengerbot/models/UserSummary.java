@@ -0,0 +1,21 @@
+package com.vasyagladush.spotifymessengerbot.models;
+
+import java.util.UUID;
+
+/**
+ * The columns of a user needed by most messenger commands, without the music
+ * provider tokens. Loaded as a {@link UserSummaryRow} by
+ * {@link com.vasyagladush.spotifymessengerbot.repositories.UserRepository};
+ * a full {@link User} is a summary as well.
+ */
+public interface UserSummary {
+    UUID getId();
+
+    String getMessengerPlatform();
+
+    String getMessengerUserId();
+
+    String getMusicProviderPlatform();
+
+    boolean isAutoclear();
+}
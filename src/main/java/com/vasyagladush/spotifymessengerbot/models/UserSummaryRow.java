@@ -0,0 +1,21 @@
+package com.vasyagladush.spotifymessengerbot.models;
+
+import java.util.UUID;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+/**
+ * A {@link UserSummary} selected with a constructor expression, so only its
+ * columns are read. It is not an entity; changes go through the
+ * {@link com.vasyagladush.spotifymessengerbot.services.UserService}.
+ */
+@Getter
+@AllArgsConstructor
+public class UserSummaryRow implements UserSummary {
+    private final UUID id;
+    private final String messengerPlatform;
+    private final String messengerUserId;
+    private final String musicProviderPlatform;
+    private final boolean autoclear;
+}
@@ -0,0 +1,182 @@
+package com.vasyagladush.spotifymessengerbot.musicproviders.spotify;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Date;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.sql.DataSource;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import com.vasyagladush.spotifymessengerbot.caches.ExpiringLruCache;
+import com.vasyagladush.spotifymessengerbot.models.MusicProviderPlatform;
+import com.vasyagladush.spotifymessengerbot.models.User;
+import com.vasyagladush.spotifymessengerbot.services.UserService;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+
+/**
+ * Refreshes Spotify access tokens that are about to expire in the background,
+ * so that user requests don't have to wait for a refresh.
+ * Only users seen within SPOTIFY_TOKEN_REFRESH_ACTIVE_WITHIN_MS are refreshed;
+ * the tokens of the others expire and are refreshed inline when they come back.
+ * A run holds a Postgres advisory lock, so only one instance refreshes at a
+ * time and the others skip the run.
+ */
+@Component
+@ConditionalOnProperty(name = "SPOTIFY_TOKEN_REFRESH_ENABLED", havingValue = "true", matchIfMissing = true)
+public class SpotifyAccessTokenRefresher {
+    private static final Logger logger = LogManager.getLogger(SpotifyAccessTokenRefresher.class);
+    private static final UUID MIN_UUID = new UUID(0, 0);
+    // Arbitrary, only has to differ from other advisory locks taken in the database
+    private static final long ADVISORY_LOCK_KEY = 0x53707449_52667368L;
+
+    private final SpotifyService spotifyService;
+    private final UserService userService;
+    private final DataSource dataSource;
+    private final int batchSize;
+    private final int maxBatchesPerRun;
+    private final long refreshAheadMilliseconds;
+    private final long expiredGraceMilliseconds;
+    private final long activeWithinMilliseconds;
+    private final long failureBackoffMilliseconds;
+
+    // Users whose refresh failed recently, most likely because they revoked access
+    private final ExpiringLruCache<UUID, Boolean> recentlyFailedUsers;
+
+    private final Counter failedCounter;
+    private final Counter skippedCounter;
+    private final Counter lockedRunsCounter;
+    private final Timer runTimer;
+    private final AtomicInteger lastRunDueUsers = new AtomicInteger();
+
+    @Autowired
+    public SpotifyAccessTokenRefresher(SpotifyService spotifyService, UserService userService, DataSource dataSource,
+            @Value("${SPOTIFY_TOKEN_REFRESH_BATCH_SIZE:50}") int batchSize,
+            @Value("${SPOTIFY_TOKEN_REFRESH_MAX_BATCHES_PER_RUN:20}") int maxBatchesPerRun,
+            @Value("${SPOTIFY_TOKEN_REFRESH_AHEAD_MS:600000}") long refreshAheadMilliseconds,
+            @Value("${SPOTIFY_TOKEN_REFRESH_EXPIRED_GRACE_MS:3600000}") long expiredGraceMilliseconds,
+            @Value("${SPOTIFY_TOKEN_REFRESH_ACTIVE_WITHIN_MS:10800000}") long activeWithinMilliseconds,
+            @Value("${SPOTIFY_TOKEN_REFRESH_FAILURE_BACKOFF_MS:900000}") long failureBackoffMilliseconds,
+            MeterRegistry meterRegistry) {
+        this.spotifyService = spotifyService;
+        this.userService = userService;
+        this.dataSource = dataSource;
+        this.batchSize = batchSize;
+        this.maxBatchesPerRun = maxBatchesPerRun;
+        this.refreshAheadMilliseconds = refreshAheadMilliseconds;
+        this.expiredGraceMilliseconds = expiredGraceMilliseconds;
+        this.activeWithinMilliseconds = activeWithinMilliseconds;
+        this.failureBackoffMilliseconds = failureBackoffMilliseconds;
+        this.recentlyFailedUsers = new ExpiringLruCache<>("spotify.token.refresh.failures", 10000, meterRegistry);
+
+        this.failedCounter = Counter.builder("spotify.token.refresh.background.failures").register(meterRegistry);
+        this.skippedCounter = Counter.builder("spotify.token.refresh.background.skipped")
+                .description("Users skipped because their last refresh failed recently").register(meterRegistry);
+        this.lockedRunsCounter = Counter.builder("spotify.token.refresh.background.locked")
+                .description("Runs skipped because another instance was refreshing").register(meterRegistry);
+        this.runTimer = Timer.builder("spotify.token.refresh.background.run").register(meterRegistry);
+        Gauge.builder("spotify.token.refresh.background.due", this.lastRunDueUsers, AtomicInteger::get)
+                .description("Users with an expiring token found by the last run").register(meterRegistry);
+    }
+
+    @Scheduled(fixedDelayString = "${SPOTIFY_TOKEN_REFRESH_INTERVAL_MS:60000}",
+            initialDelayString = "${SPOTIFY_TOKEN_REFRESH_INITIAL_DELAY_MS:30000}")
+    public void refreshExpiringAccessTokens() {
+        // The lock belongs to the database session, so the connection is kept for
+        // the run; the refreshes themselves use other pooled connections
+        try (Connection connection = this.dataSource.getConnection()) {
+            if (!SpotifyAccessTokenRefresher.callAdvisoryLockFunction(connection, "pg_try_advisory_lock")) {
+                this.lockedRunsCounter.increment();
+                logger.debug("Spotify: background access token refresh is running on another instance");
+                return;
+            }
+            try {
+                this.runTimer.record(this::refreshExpiringAccessTokensInBatches);
+            } finally {
+                SpotifyAccessTokenRefresher.callAdvisoryLockFunction(connection, "pg_advisory_unlock");
+            }
+        } catch (SQLException e) {
+            logger.error("Spotify: background access token refresh lock failed, error message: " + e.getMessage());
+            logger.trace(e.getStackTrace());
+        }
+    }
+
+    private static boolean callAdvisoryLockFunction(final Connection connection, final String function)
+            throws SQLException {
+        try (PreparedStatement statement = connection.prepareStatement("SELECT " + function + "(?)")) {
+            statement.setLong(1, SpotifyAccessTokenRefresher.ADVISORY_LOCK_KEY);
+            try (ResultSet resultSet = statement.executeQuery()) {
+                return resultSet.next() && resultSet.getBoolean(1);
+            }
+        }
+    }
+
+    private void refreshExpiringAccessTokensInBatches() {
+        final long now = System.currentTimeMillis();
+        final Date expiresBefore = new Date(now + this.refreshAheadMilliseconds);
+        Date afterExpiresAt = new Date(now - this.expiredGraceMilliseconds);
+        final Date seenAfter = new Date(now - this.activeWithinMilliseconds);
+        UUID afterId = SpotifyAccessTokenRefresher.MIN_UUID;
+        int dueUsers = 0;
+
+        for (int batch = 0; batch < this.maxBatchesPerRun; ++batch) {
+            final List<User> users = this.userService.getWithMusicProviderAccessTokenExpiringBefore(
+                    MusicProviderPlatform.SPOTIFY, expiresBefore, afterExpiresAt, afterId, seenAfter,
+                    this.batchSize);
+            dueUsers += users.size();
+            if (users.isEmpty()) {
+                break;
+            }
+
+            // Taken before refreshing, which moves the expiration time forward
+            final User lastUser = users.get(users.size() - 1);
+            afterExpiresAt = lastUser.getMusicProviderAccessTokenExpiresAt();
+            afterId = lastUser.getId();
+
+            for (User user : users) {
+                this.refresh(user);
+            }
+
+            if (users.size() < this.batchSize) {
+                break;
+            }
+        }
+
+        this.lastRunDueUsers.set(dueUsers);
+        if (dueUsers > 0) {
+            logger.info("Spotify: background access token refresh run finished, users due: " + dueUsers);
+        }
+    }
+
+    private void refresh(final User user) {
+        if (this.recentlyFailedUsers.get(user.getId()) != null) {
+            this.skippedCounter.increment();
+            return;
+        }
+
+        try {
+            this.spotifyService.refreshUserAccessToken(user, this.refreshAheadMilliseconds, true);
+        } catch (Exception e) {
+            this.failedCounter.increment();
+            this.recentlyFailedUsers.put(user.getId(), Boolean.TRUE, this.failureBackoffMilliseconds);
+            logger.error("Spotify: background access token refresh failed, user id: " + user.getId()
+                    + ", error message: " + e.getMessage());
+            logger.trace(e.getStackTrace());
+        }
+    }
+}
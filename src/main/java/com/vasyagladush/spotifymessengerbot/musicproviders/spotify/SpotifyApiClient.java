@@ -0,0 +1,223 @@
+package com.vasyagladush.spotifymessengerbot.musicproviders.spotify;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ThreadLocalRandom;
+
+import org.apache.http.Header;
+import org.apache.http.HttpEntity;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.client.methods.HttpUriRequest;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.util.EntityUtils;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import com.vasyagladush.spotifymessengerbot.concurrency.CircuitBreaker;
+import com.vasyagladush.spotifymessengerbot.concurrency.TokenBucket;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+
+/**
+ * Sends requests to Spotify within an app-wide rate limit. Honours Retry-After
+ * of 429 responses for all requests, retries 5xx responses and connection
+ * errors with jittered exponential backoff, and fails fast while the circuit
+ * breaker is open after repeated failures.
+ */
+@Component
+public class SpotifyApiClient {
+    private static final Logger logger = LogManager.getLogger(SpotifyApiClient.class);
+    private static final long DEFAULT_RETRY_AFTER_MILLISECONDS = 1000;
+
+    private final CloseableHttpClient httpClient;
+    private final TokenBucket tokenBucket;
+    private final CircuitBreaker circuitBreaker;
+    private final long maxWaitMilliseconds;
+    private final int maxRetries;
+    private final long retryBaseDelayMilliseconds;
+    // Set from Retry-After, Spotify's rate limit applies to the whole app
+    private volatile long pausedUntil;
+
+    private final Counter throttledCounter;
+    private final Counter retriedCounter;
+    private final Counter rateLimitRejectedCounter;
+    private final Counter circuitOpenRejectedCounter;
+
+    @Autowired
+    public SpotifyApiClient(
+            @Qualifier(SpotifyHttpClientConfiguration.SPOTIFY_HTTP_CLIENT) CloseableHttpClient httpClient,
+            @Value("${SPOTIFY_RATE_LIMIT_PER_SECOND:20}") double permitsPerSecond,
+            @Value("${SPOTIFY_RATE_LIMIT_BURST:40}") long burst,
+            @Value("${SPOTIFY_RATE_LIMIT_MAX_WAIT_MS:2000}") long maxWaitMilliseconds,
+            @Value("${SPOTIFY_MAX_RETRIES:2}") int maxRetries,
+            @Value("${SPOTIFY_RETRY_BASE_DELAY_MS:200}") long retryBaseDelayMilliseconds,
+            @Value("${SPOTIFY_CIRCUIT_BREAKER_FAILURE_THRESHOLD:5}") int circuitBreakerFailureThreshold,
+            @Value("${SPOTIFY_CIRCUIT_BREAKER_OPEN_MS:30000}") long circuitBreakerOpenMilliseconds,
+            MeterRegistry meterRegistry) {
+        this.httpClient = httpClient;
+        this.tokenBucket = new TokenBucket(burst, permitsPerSecond);
+        this.circuitBreaker = new CircuitBreaker("spotify", circuitBreakerFailureThreshold,
+                circuitBreakerOpenMilliseconds, meterRegistry);
+        this.maxWaitMilliseconds = maxWaitMilliseconds;
+        this.maxRetries = maxRetries;
+        this.retryBaseDelayMilliseconds = retryBaseDelayMilliseconds;
+
+        this.throttledCounter = Counter.builder("spotify.api.throttled")
+                .description("429 responses received from Spotify").register(meterRegistry);
+        this.retriedCounter = Counter.builder("spotify.api.retried").register(meterRegistry);
+        this.rateLimitRejectedCounter = Counter.builder("spotify.api.rejected").tag("reason", "rate_limit")
+                .register(meterRegistry);
+        this.circuitOpenRejectedCounter = Counter.builder("spotify.api.rejected").tag("reason", "circuit_open")
+                .register(meterRegistry);
+    }
+
+    /**
+     * @param idempotent whether the request may be sent again after a 5xx
+     *                   response or a connection error; 429 responses are always
+     *                   retried, as Spotify didn't process the request
+     * @return the response body, or null if there is none
+     * @throws SpotifyApiException if Spotify responded with an error status or
+     *                             the request was rejected before being sent
+     */
+    public String execute(final HttpUriRequest request, final boolean idempotent) throws IOException {
+        for (int attempt = 0;; ++attempt) {
+            this.acquirePermit();
+
+            SpotifyResponse response = null;
+            IOException sendException = null;
+            try {
+                response = this.send(request);
+            } catch (IOException e) {
+                sendException = e;
+            } finally {
+                // Reported for every permitted call, unchecked exceptions included,
+                // so a trial call can't leave the circuit breaker half open. A 429
+                // means Spotify is up, just asking us to slow down
+                if (response != null && response.statusCode < 500) {
+                    this.circuitBreaker.onSuccess();
+                } else {
+                    this.circuitBreaker.onFailure();
+                }
+            }
+
+            if (sendException != null) {
+                if (!idempotent || attempt >= this.maxRetries) {
+                    throw sendException;
+                }
+                logger.warn("Spotify request failed, retrying: " + request.getURI().getPath() + ", error message: "
+                        + sendException.getMessage());
+                this.backOff(attempt);
+                continue;
+            }
+
+            final int statusCode = response.statusCode;
+            if (statusCode == 429) {
+                this.throttledCounter.increment();
+                final long retryAfterMilliseconds = SpotifyApiClient.parseRetryAfter(response.retryAfterHeader);
+                this.pausedUntil = Math.max(this.pausedUntil, System.currentTimeMillis() + retryAfterMilliseconds);
+                logger.warn("Spotify rate limit reached, retry after " + retryAfterMilliseconds + " ms");
+                if (attempt >= this.maxRetries || retryAfterMilliseconds > this.maxWaitMilliseconds) {
+                    throw new SpotifyApiException("Spotify rate limit reached, retry after "
+                            + retryAfterMilliseconds + " ms", statusCode);
+                }
+                this.retriedCounter.increment();
+                continue;
+            }
+
+            if (statusCode >= 500) {
+                if (!idempotent || attempt >= this.maxRetries) {
+                    throw new SpotifyApiException("Spotify responded with status " + statusCode, statusCode);
+                }
+                logger.warn("Spotify responded with status " + statusCode + ", retrying: "
+                        + request.getURI().getPath());
+                this.backOff(attempt);
+                continue;
+            }
+
+            if (statusCode >= 400) {
+                throw new SpotifyApiException("Spotify responded with status " + statusCode + ": "
+                        + response.content, statusCode);
+            }
+            return statusCode == 204 ? null : response.content;
+        }
+    }
+
+    private SpotifyResponse send(final HttpUriRequest request) throws IOException {
+        try (final CloseableHttpResponse response = this.httpClient.execute(request)) {
+            final HttpEntity responseEntity = response.getEntity();
+            return new SpotifyResponse(response.getStatusLine().getStatusCode(),
+                    response.getFirstHeader("Retry-After"),
+                    responseEntity == null ? null : EntityUtils.toString(responseEntity, StandardCharsets.UTF_8));
+        }
+    }
+
+    private void acquirePermit() throws IOException {
+        try {
+            final long pausedForMilliseconds = this.pausedUntil - System.currentTimeMillis();
+            if (pausedForMilliseconds > this.maxWaitMilliseconds) {
+                this.rateLimitRejectedCounter.increment();
+                throw new SpotifyApiException("Spotify rate limit reached, retry after " + pausedForMilliseconds
+                        + " ms");
+            }
+            if (pausedForMilliseconds > 0) {
+                Thread.sleep(pausedForMilliseconds);
+            }
+
+            if (!this.tokenBucket.tryAcquire(this.maxWaitMilliseconds)) {
+                this.rateLimitRejectedCounter.increment();
+                throw new SpotifyApiException("Spotify request rate limit reached");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for the Spotify rate limit");
+        }
+
+        if (!this.circuitBreaker.tryAcquire()) {
+            this.circuitOpenRejectedCounter.increment();
+            throw new SpotifyApiException("Spotify is unavailable, circuit breaker is open");
+        }
+    }
+
+    // Full jitter: a random delay up to the exponential backoff
+    private void backOff(final int attempt) throws InterruptedIOException {
+        this.retriedCounter.increment();
+        final long maxDelayMilliseconds = this.retryBaseDelayMilliseconds << attempt;
+        try {
+            Thread.sleep(ThreadLocalRandom.current().nextLong(maxDelayMilliseconds + 1));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while backing off a Spotify request");
+        }
+    }
+
+    // Spotify sends the number of seconds to wait
+    private static long parseRetryAfter(final Header retryAfterHeader) {
+        if (retryAfterHeader == null) {
+            return SpotifyApiClient.DEFAULT_RETRY_AFTER_MILLISECONDS;
+        }
+        try {
+            return Long.parseLong(retryAfterHeader.getValue().trim()) * 1000;
+        } catch (NumberFormatException e) {
+            return SpotifyApiClient.DEFAULT_RETRY_AFTER_MILLISECONDS;
+        }
+    }
+
+    private static class SpotifyResponse {
+        private final int statusCode;
+        private final Header retryAfterHeader;
+        // null if there is no body
+        private final String content;
+
+        SpotifyResponse(int statusCode, Header retryAfterHeader, String content) {
+            this.statusCode = statusCode;
+            this.retryAfterHeader = retryAfterHeader;
+            this.content = content;
+        }
+    }
+}
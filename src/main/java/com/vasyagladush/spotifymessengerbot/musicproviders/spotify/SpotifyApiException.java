@@ -0,0 +1,40 @@
+package com.vasyagladush.spotifymessengerbot.musicproviders.spotify;
+
+import java.io.IOException;
+
+/**
+ * Spotify responded with an error status, or the request was not sent because
+ * of the rate limit or an open circuit breaker
+ */
+public class SpotifyApiException extends IOException {
+    private static final long serialVersionUID = 1L;
+
+    // 0 if the request was not sent
+    private final int statusCode;
+    private final boolean unavailable;
+
+    public SpotifyApiException(final String message, final int statusCode) {
+        super(message);
+        this.statusCode = statusCode;
+        this.unavailable = statusCode == 429 || statusCode >= 500;
+    }
+
+    // For requests which were not sent
+    public SpotifyApiException(final String message) {
+        super(message);
+        this.statusCode = 0;
+        this.unavailable = true;
+    }
+
+    public int getStatusCode() {
+        return this.statusCode;
+    }
+
+    /**
+     * @return true if Spotify is rate limiting or failing, so the request may
+     *         succeed if retried later
+     */
+    public boolean isUnavailable() {
+        return this.unavailable;
+    }
+}
@@ -0,0 +1,75 @@
+package com.vasyagladush.spotifymessengerbot.musicproviders.spotify;
+
+import java.util.concurrent.TimeUnit;
+
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.DefaultConnectionKeepAliveStrategy;
+import org.apache.http.impl.client.HttpClients;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+
+@Configuration
+public class SpotifyHttpClientConfiguration {
+    public static final String SPOTIFY_HTTP_CLIENT = "spotifyHttpClient";
+
+    @Bean
+    public PoolingHttpClientConnectionManager spotifyHttpConnectionManager(
+            @Value("${SPOTIFY_HTTP_MAX_CONNECTIONS:50}") int maxConnections,
+            @Value("${SPOTIFY_HTTP_MAX_CONNECTIONS_PER_ROUTE:25}") int maxConnectionsPerRoute,
+            @Value("${SPOTIFY_HTTP_CONNECTION_TTL_MS:300000}") long connectionTimeToLiveMilliseconds,
+            MeterRegistry meterRegistry) {
+        final PoolingHttpClientConnectionManager connectionManager = new PoolingHttpClientConnectionManager(
+                connectionTimeToLiveMilliseconds, TimeUnit.MILLISECONDS);
+        connectionManager.setMaxTotal(maxConnections);
+        // Spotify is reached on two routes only (api.spotify.com and
+        // accounts.spotify.com), so each of them is allowed a good share of the pool
+        connectionManager.setDefaultMaxPerRoute(maxConnectionsPerRoute);
+        connectionManager.setValidateAfterInactivity(10 * 1000);
+
+        Gauge.builder("spotify.http.pool.leased", connectionManager, manager -> manager.getTotalStats().getLeased())
+                .description("Spotify HTTP connections currently in use").register(meterRegistry);
+        Gauge.builder("spotify.http.pool.pending", connectionManager,
+                manager -> manager.getTotalStats().getPending())
+                .description("Requests waiting for a Spotify HTTP connection").register(meterRegistry);
+        Gauge.builder("spotify.http.pool.available", connectionManager,
+                manager -> manager.getTotalStats().getAvailable())
+                .description("Idle Spotify HTTP connections kept alive in the pool").register(meterRegistry);
+        Gauge.builder("spotify.http.pool.max", connectionManager, manager -> manager.getTotalStats().getMax())
+                .description("Maximum number of Spotify HTTP connections").register(meterRegistry);
+
+        return connectionManager;
+    }
+
+    @Bean(name = SPOTIFY_HTTP_CLIENT)
+    public CloseableHttpClient spotifyHttpClient(PoolingHttpClientConnectionManager spotifyHttpConnectionManager,
+            @Value("${SPOTIFY_HTTP_CONNECT_TIMEOUT_MS:3000}") int connectTimeoutMilliseconds,
+            @Value("${SPOTIFY_HTTP_READ_TIMEOUT_MS:5000}") int readTimeoutMilliseconds,
+            @Value("${SPOTIFY_HTTP_POOL_TIMEOUT_MS:2000}") int connectionRequestTimeoutMilliseconds,
+            @Value("${SPOTIFY_HTTP_KEEP_ALIVE_MS:60000}") long defaultKeepAliveMilliseconds) {
+        final RequestConfig requestConfig = RequestConfig.custom()
+                .setConnectTimeout(connectTimeoutMilliseconds)
+                .setSocketTimeout(readTimeoutMilliseconds)
+                .setConnectionRequestTimeout(connectionRequestTimeoutMilliseconds)
+                .build();
+
+        return HttpClients.custom()
+                .setConnectionManager(spotifyHttpConnectionManager)
+                .setDefaultRequestConfig(requestConfig)
+                // Use the server's Keep-Alive header when present, otherwise keep the
+                // connection for the configured default instead of forever
+                .setKeepAliveStrategy((response, context) -> {
+                    final long serverKeepAlive = DefaultConnectionKeepAliveStrategy.INSTANCE
+                            .getKeepAliveDuration(response, context);
+                    return serverKeepAlive > 0 ? serverKeepAlive : defaultKeepAliveMilliseconds;
+                })
+                .evictExpiredConnections()
+                .evictIdleConnections(defaultKeepAliveMilliseconds, TimeUnit.MILLISECONDS)
+                .build();
+    }
+}
@@ -4,17 +4,15 @@ import java.io.IOException;
 import java.net.URLEncoder;
 import java.nio.charset.StandardCharsets;
 import java.util.Date;
+import java.util.Optional;
+import java.util.UUID;
 
 import org.apache.http.HttpEntity;
 import org.apache.http.client.ClientProtocolException;
-import org.apache.http.client.methods.CloseableHttpResponse;
 import org.apache.http.client.methods.HttpGet;
 import org.apache.http.client.methods.HttpPost;
 import org.apache.http.entity.ContentType;
 import org.apache.http.entity.StringEntity;
-import org.apache.http.impl.client.CloseableHttpClient;
-import org.apache.http.impl.client.HttpClients;
-import org.apache.http.util.EntityUtils;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import org.apache.tomcat.util.codec.binary.Base64;
@@ -25,11 +23,17 @@ import org.springframework.util.function.ThrowingFunction;
 
 import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.vasyagladush.spotifymessengerbot.caches.ExpiringLruCache;
+import com.vasyagladush.spotifymessengerbot.concurrency.SingleFlight;
+import com.vasyagladush.spotifymessengerbot.metrics.ExternalCallTimer;
 import com.vasyagladush.spotifymessengerbot.models.User;
 import com.vasyagladush.spotifymessengerbot.musicproviders.spotify.types.SpotifyAccessTokenGrantedResponse;
 import com.vasyagladush.spotifymessengerbot.musicproviders.spotify.types.SpotifyGetCurrentlyPlayingTrackResponse;
 import com.vasyagladush.spotifymessengerbot.services.UserService;
 
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+
 // Might come in handy: https://www.baeldung.com/spring-inject-static-field
 
 class ApiRequestFunctionParamsWithAccessToken<ParamsType> {
@@ -42,12 +46,36 @@ class ApiRequestFunctionParamsWithAccessToken<ParamsType> {
         }
 }
 
+class AccessTokens {
+        final String accessToken;
+        final String refreshToken;
+        final Date expiresAt;
+
+        AccessTokens(User user) {
+                this.accessToken = user.getMusicProviderAccessToken();
+                this.refreshToken = user.getMusicProviderRefreshToken();
+                this.expiresAt = user.getMusicProviderAccessTokenExpiresAt();
+        }
+}
+
 @Service
 public class SpotifyService {
         private static final Logger logger = LogManager.getLogger(SpotifyService.class);
         private static final ObjectMapper objectMapper = new ObjectMapper();
 
         private final UserService userService;
+        private final SpotifyApiClient apiClient;
+        private final SingleFlight<UUID, AccessTokens> accessTokenRefreshes;
+        // Empty when nothing is playing
+        private final ExpiringLruCache<UUID, Optional<SpotifyGetCurrentlyPlayingTrackResponse>> currentlyPlayingTracks;
+        private final long currentlyPlayingTrackCacheMaxTimeToLiveMilliseconds;
+        private final long nothingPlayingCacheTimeToLiveMilliseconds;
+        private final Counter inlineRefreshCounter;
+        private final Counter backgroundRefreshCounter;
+        private final Counter reusedRefreshCounter;
+        private final Counter discardedRefreshCounter;
+        private final ExternalCallTimer currentlyPlayingCallTimer;
+        private final ExternalCallTimer tokenRefreshCallTimer;
         private final String apiKey;
         private final String apiSecret;
         private final String apiUrl;
@@ -63,7 +91,13 @@ public class SpotifyService {
                         @Value("${SPOTIFY_API_SECRET}") String apiSecret,
                         @Value("${SPOTIFY_API_URL}") String apiUrl, @Value("${SPOTIFY_OAUTH_URL}") String oauthUrl,
                         @Value("${BASE_URL}") String baseUrl, @Value("${SPOTIFY_TOKEN_URL}") String tokenUrl,
-                        UserService userService) {
+                        UserService userService,
+                        SpotifyApiClient apiClient,
+                        @Value("${SPOTIFY_CURRENTLY_PLAYING_CACHE_MAX_SIZE:10000}") int currentlyPlayingTrackCacheMaxSize,
+                        @Value("${SPOTIFY_CURRENTLY_PLAYING_CACHE_MAX_TTL_MS:30000}") long currentlyPlayingTrackCacheMaxTimeToLiveMilliseconds,
+                        @Value("${SPOTIFY_NOTHING_PLAYING_CACHE_TTL_MS:5000}") long nothingPlayingCacheTimeToLiveMilliseconds,
+                        @Value("${SPOTIFY_TOKEN_REFRESH_SHARED_WAIT_TIMEOUT_MS:30000}") long sharedTokenRefreshWaitTimeoutMilliseconds,
+                        MeterRegistry meterRegistry) {
                 this.apiKey = apiKey;
                 this.apiSecret = apiSecret;
                 this.apiUrl = apiUrl;
@@ -71,7 +105,25 @@ public class SpotifyService {
                 this.authorizationCallbackUrl = baseUrl + "callback/spotify/";
                 this.tokenUrl = tokenUrl;
                 this.userService = userService;
-
+                this.apiClient = apiClient;
+                this.accessTokenRefreshes = new SingleFlight<>("spotify.token.refresh",
+                                sharedTokenRefreshWaitTimeoutMilliseconds, meterRegistry);
+                this.currentlyPlayingTracks = new ExpiringLruCache<>("spotify.currently.playing",
+                                currentlyPlayingTrackCacheMaxSize, meterRegistry);
+                this.currentlyPlayingTrackCacheMaxTimeToLiveMilliseconds = currentlyPlayingTrackCacheMaxTimeToLiveMilliseconds;
+                this.nothingPlayingCacheTimeToLiveMilliseconds = nothingPlayingCacheTimeToLiveMilliseconds;
+                this.inlineRefreshCounter = Counter.builder("spotify.token.refresh").tag("trigger", "inline")
+                                .register(meterRegistry);
+                this.backgroundRefreshCounter = Counter.builder("spotify.token.refresh").tag("trigger", "background")
+                                .register(meterRegistry);
+                this.reusedRefreshCounter = Counter.builder("spotify.token.refresh.reused")
+                                .description("Refreshes skipped because another request had just refreshed the token")
+                                .register(meterRegistry);
+                this.discardedRefreshCounter = Counter.builder("spotify.token.refresh.discarded")
+                                .description("Refreshes whose tokens weren't stored because another instance refreshed the token meanwhile")
+                                .register(meterRegistry);
+                this.currentlyPlayingCallTimer = new ExternalCallTimer("spotify", "currently_playing", meterRegistry);
+                this.tokenRefreshCallTimer = new ExternalCallTimer("spotify", "token_refresh", meterRegistry);
         }
 
         public String constructAuthorizationLink(final String state) {
@@ -84,8 +136,6 @@ public class SpotifyService {
 
         public SpotifyAccessTokenGrantedResponse exchangeCodeOnAccessToken(final String code, final String state)
                         throws JsonProcessingException, IOException, ClientProtocolException {
-                CloseableHttpClient httpClient = HttpClients.createDefault();
-
                 HttpPost httpPost = new HttpPost(this.tokenUrl);
 
                 String formUrlEncodedStringRequestBody = String.format(
@@ -100,22 +150,16 @@ public class SpotifyService {
                 httpPost.setEntity(stringEntity);
                 httpPost.setHeader("Authorization", "Basic " + this.constructBasicClientCredentialsToken());
 
-                final CloseableHttpResponse response = httpClient.execute(httpPost);
-
-                final HttpEntity responseEntity = response.getEntity();
+                // The code can be exchanged once only, so the request is not retried
+                final String responseContent = this.apiClient.execute(httpPost, false);
 
-                logger.debug("Spotify grant access token response entity: " + responseEntity);
+                logger.debug("Spotify grant access token response received");
 
-                String responseContent = EntityUtils.toString(responseEntity, StandardCharsets.UTF_8);
-
-                return objectMapper.readValue(responseContent,
-                                SpotifyAccessTokenGrantedResponse.class);
+                return objectMapper.readValue(responseContent, SpotifyAccessTokenGrantedResponse.class);
         }
 
         public SpotifyAccessTokenGrantedResponse refreshAccessToken(String refreshToken)
                         throws JsonProcessingException, IOException, ClientProtocolException {
-                CloseableHttpClient httpClient = HttpClients.createDefault();
-
                 HttpPost httpPost = new HttpPost(this.tokenUrl);
 
                 String formUrlEncodedStringRequestBody = String.format(
@@ -130,46 +174,145 @@ public class SpotifyService {
                 httpPost.setEntity(stringEntity);
                 httpPost.setHeader("Authorization", "Basic " + this.constructBasicClientCredentialsToken());
 
-                final CloseableHttpResponse response = httpClient.execute(httpPost);
-
-                final HttpEntity responseEntity = response.getEntity();
-
-                logger.debug("Spotify refresh access token response entity: " + responseEntity);
+                final long startedAt = System.nanoTime();
+                boolean success = false;
+                final String responseContent;
+                try {
+                        // Not retried, as Spotify may have rotated the refresh token before a
+                        // lost response
+                        responseContent = this.apiClient.execute(httpPost, false);
+                        success = true;
+                } finally {
+                        this.tokenRefreshCallTimer.record(startedAt, success);
+                }
 
-                String responseContent = EntityUtils.toString(responseEntity, StandardCharsets.UTF_8);
+                logger.debug("Spotify refresh access token response received");
 
-                return objectMapper.readValue(responseContent,
-                                SpotifyAccessTokenGrantedResponse.class);
+                return objectMapper.readValue(responseContent, SpotifyAccessTokenGrantedResponse.class);
         }
 
+        /**
+         * Served from a per-user cache while the track is expected to still be
+         * playing, so repeated requests during one track make a single Spotify call
+         *
+         * @return null if nothing is playing
+         */
         public SpotifyGetCurrentlyPlayingTrackResponse getCurrentlyPlayingTrack(User user)
                         throws JsonProcessingException, IOException, ClientProtocolException {
-                return this.<Object, SpotifyGetCurrentlyPlayingTrackResponse>sendApiRequest(user, null,
-                                this::_getCurrentlyPlayingTrack);
+                final Optional<SpotifyGetCurrentlyPlayingTrackResponse> cachedTrack = this.currentlyPlayingTracks
+                                .get(user.getId());
+                if (cachedTrack != null) {
+                        logger.debug("Spotify currently playing track cache hit, user id: " + user.getId());
+                        return cachedTrack.orElse(null);
+                }
+
+                final SpotifyGetCurrentlyPlayingTrackResponse currentlyPlayingTrack = this
+                                .<Object, SpotifyGetCurrentlyPlayingTrackResponse>sendApiRequest(user, null,
+                                                this::_getCurrentlyPlayingTrack);
+                this.currentlyPlayingTracks.put(user.getId(), Optional.ofNullable(currentlyPlayingTrack),
+                                this.computeCurrentlyPlayingTrackTimeToLive(currentlyPlayingTrack));
+                return currentlyPlayingTrack;
+        }
+
+        // For when the user's playback is known to have changed, e.g. after
+        // authorizing another Spotify account
+        public void invalidateCurrentlyPlayingTrack(final User user) {
+                this.currentlyPlayingTracks.invalidate(user.getId());
+        }
+
+        // Until the track is expected to end, but no longer than the maximum, since
+        // the user may skip it or pause at any time
+        private long computeCurrentlyPlayingTrackTimeToLive(
+                        final SpotifyGetCurrentlyPlayingTrackResponse currentlyPlayingTrack) {
+                if (currentlyPlayingTrack == null || currentlyPlayingTrack.getItem() == null) {
+                        return this.nothingPlayingCacheTimeToLiveMilliseconds;
+                }
+                final Long progressMs = currentlyPlayingTrack.getProgressMs();
+                final Long durationMs = currentlyPlayingTrack.getItem().getDurationMs();
+                if (!currentlyPlayingTrack.isPlaying() || progressMs == null || durationMs == null) {
+                        return this.currentlyPlayingTrackCacheMaxTimeToLiveMilliseconds;
+                }
+                return Math.max(0, Math.min(durationMs - progressMs,
+                                this.currentlyPlayingTrackCacheMaxTimeToLiveMilliseconds));
         }
 
         private SpotifyGetCurrentlyPlayingTrackResponse _getCurrentlyPlayingTrack(
                         ApiRequestFunctionParamsWithAccessToken<?> args)
                         throws JsonProcessingException, IOException, ClientProtocolException {
-                CloseableHttpClient httpClient = HttpClients.createDefault();
-
                 HttpGet httpGet = new HttpGet(this.apiUrl + "v1/me/player/currently-playing");
 
                 httpGet.setHeader("Authorization", "Bearer " + args.accessToken);
 
-                final CloseableHttpResponse response = httpClient.execute(httpGet);
-
-                final HttpEntity responseEntity = response.getEntity();
+                final long startedAt = System.nanoTime();
+                boolean success = false;
+                final String responseContent;
+                try {
+                        responseContent = this.apiClient.execute(httpGet, true);
+                        success = true;
+                } finally {
+                        this.currentlyPlayingCallTimer.record(startedAt, success);
+                }
 
-                logger.debug("Spotify get currently playing track response entity: " + responseEntity);
+                logger.debug("Spotify get currently playing track response received, empty: "
+                                + (responseContent == null));
 
-                if (responseEntity == null)
+                // Nothing is playing
+                if (responseContent == null || responseContent.isEmpty())
                         return null;
 
-                String responseContent = EntityUtils.toString(responseEntity, StandardCharsets.UTF_8);
+                return objectMapper.readValue(responseContent, SpotifyGetCurrentlyPlayingTrackResponse.class);
+        }
+
+        public boolean isAccessTokenExpiring(final User user, final long offsetMilliseconds) {
+                return user.getMusicProviderAccessTokenExpiresAt().getTime()
+                                - new Date().getTime() <= offsetMilliseconds;
+        }
+
+        /**
+         * Refreshes the user's access token unless it has already been refreshed
+         * and no longer expires within the offset. Concurrent refreshes of the same
+         * user share one call in this instance. No database connection is held
+         * during the Spotify call: the tokens are stored only if nobody stored
+         * others meanwhile, otherwise the ones of the other instance are used.
+         */
+        public void refreshUserAccessToken(final User user, final long expirationOffsetMilliseconds,
+                        final boolean background) throws IOException {
+                final AccessTokens accessTokens = this.accessTokenRefreshes.execute(user.getId(),
+                                () -> this.refreshStoredUserAccessToken(user.getId(), expirationOffsetMilliseconds,
+                                                background ? this.backgroundRefreshCounter
+                                                                : this.inlineRefreshCounter));
+
+                user.setMusicProviderAccessToken(accessTokens.accessToken);
+                user.setMusicProviderRefreshToken(accessTokens.refreshToken);
+                user.setMusicProviderAccessTokenExpiresAt(accessTokens.expiresAt);
+        }
+
+        private AccessTokens refreshStoredUserAccessToken(final UUID userId, final long expirationOffsetMilliseconds,
+                        final Counter refreshCounter) throws IOException {
+                final User storedUser = this.userService.get(userId).get();
 
-                return objectMapper.readValue(responseContent,
-                                SpotifyGetCurrentlyPlayingTrackResponse.class);
+                if (!this.isAccessTokenExpiring(storedUser, expirationOffsetMilliseconds)) {
+                        logger.debug("Spotify access token already refreshed, user id: " + userId);
+                        this.reusedRefreshCounter.increment();
+                        return new AccessTokens(storedUser);
+                }
+
+                logger.debug("Spotify access token refreshing starts, user id: " + userId);
+                refreshCounter.increment();
+                final SpotifyAccessTokenGrantedResponse refreshAccessTokenResponse = this
+                                .refreshAccessToken(storedUser.getMusicProviderRefreshToken());
+
+                final Date now = new Date();
+                if (this.userService.updateWithMusicProviderAccessTokensIfUnchanged(storedUser,
+                                refreshAccessTokenResponse.access_token, refreshAccessTokenResponse.refresh_token,
+                                new Date(now.getTime() + refreshAccessTokenResponse.expires_in * 1000))) {
+                        logger.debug("Spotify access token refreshed, user id: " + userId);
+                        return new AccessTokens(storedUser);
+                }
+
+                logger.debug("Spotify access token refreshed by another instance meanwhile, user id: " + userId);
+                this.discardedRefreshCounter.increment();
+                return new AccessTokens(this.userService.get(userId).get());
         }
 
         private String constructBasicClientCredentialsToken() {
@@ -182,20 +325,9 @@ public class SpotifyService {
                         final ThrowingFunction<ApiRequestFunctionParamsWithAccessToken<ApiRequestFunctionParamsType>, ApiRequestFunctionReturnType> apiRequestFunction)
                         throws JsonProcessingException, IOException, ClientProtocolException {
 
-                if (user.getMusicProviderAccessTokenExpiresAt().getTime()
-                                - new Date().getTime() <= SpotifyService.TOKEN_EXPIRATION_OFFSET_MILLISECONDS) {
-                        logger.debug("Spotify access token expired, starting refreshing, user id: " + user.getId());
-
-                        SpotifyAccessTokenGrantedResponse refreshAccessTokenResponse = this
-                                        .refreshAccessToken(user.getMusicProviderRefreshToken());
-
-                        final Date now = new Date();
-                        this.userService.updateWithMusicProviderAccessTokens(user,
-                                        refreshAccessTokenResponse.access_token,
-                                        refreshAccessTokenResponse.refresh_token,
-                                        new Date(now.getTime() + refreshAccessTokenResponse.expires_in * 1000));
-
-                        logger.debug("Spotify access token refreshed, user id: " + user.getId());
+                if (this.isAccessTokenExpiring(user, SpotifyService.TOKEN_EXPIRATION_OFFSET_MILLISECONDS)) {
+                        // Normally done ahead of time by SpotifyAccessTokenRefresher
+                        this.refreshUserAccessToken(user, SpotifyService.TOKEN_EXPIRATION_OFFSET_MILLISECONDS, false);
                 }
 
                 return apiRequestFunction
@@ -9,6 +9,12 @@ public class SpotifyGetCurrentlyPlayingTrackResponse {
     @JsonProperty("item")
     private TrackItem item;
 
+    @JsonProperty("progress_ms")
+    private Long progressMs;
+
+    @JsonProperty("is_playing")
+    private boolean playing;
+
     // You may include other fields as needed
 
     public TrackItem getItem() {
@@ -19,20 +25,50 @@ public class SpotifyGetCurrentlyPlayingTrackResponse {
         this.item = item;
     }
 
+    public Long getProgressMs() {
+        return progressMs;
+    }
+
+    public void setProgressMs(Long progressMs) {
+        this.progressMs = progressMs;
+    }
+
+    public boolean isPlaying() {
+        return playing;
+    }
+
+    public void setPlaying(boolean playing) {
+        this.playing = playing;
+    }
+
     // You may include getter and setter methods for other fields as needed
 
     // Inner class to represent the "item" field in the JSON response
     @JsonIgnoreProperties(ignoreUnknown = true)
     public static class TrackItem {
 
+        @JsonProperty("id")
+        private String id;
+
         @JsonProperty("name")
         private String name;
 
         @JsonProperty("artists")
         private Artist[] artists;
 
+        @JsonProperty("duration_ms")
+        private Long durationMs;
+
         // You may include other fields as needed
 
+        public String getId() {
+            return id;
+        }
+
+        public void setId(String id) {
+            this.id = id;
+        }
+
         public String getName() {
             return name;
         }
@@ -49,6 +85,14 @@ public class SpotifyGetCurrentlyPlayingTrackResponse {
             this.artists = artists;
         }
 
+        public Long getDurationMs() {
+            return durationMs;
+        }
+
+        public void setDurationMs(Long durationMs) {
+            this.durationMs = durationMs;
+        }
+
         // You may include getter and setter methods for other fields as needed
     }
 
@@ -0,0 +1,10 @@
+package com.vasyagladush.spotifymessengerbot.repositories;
+
+import org.springframework.data.repository.CrudRepository;
+import org.springframework.stereotype.Repository;
+
+import com.vasyagladush.spotifymessengerbot.models.Lyrics;
+
+@Repository
+public interface LyricsRepository extends CrudRepository<Lyrics, String> {
+}
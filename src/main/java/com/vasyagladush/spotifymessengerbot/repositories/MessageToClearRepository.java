@@ -0,0 +1,26 @@
+package com.vasyagladush.spotifymessengerbot.repositories;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.UUID;
+
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.CrudRepository;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
+
+import com.vasyagladush.spotifymessengerbot.models.MessageToClear;
+
+@Repository
+public interface MessageToClearRepository extends CrudRepository<MessageToClear, Long> {
+    @Query("SELECT m.messageId FROM MessageToClear m WHERE m.userId = :userId ORDER BY m.id")
+    List<Integer> findMessageIdsByUserId(@Param("userId") UUID userId);
+
+    @Transactional
+    @Modifying
+    @Query("DELETE FROM MessageToClear m WHERE m.userId = :userId AND m.messageId IN :messageIds")
+    int deleteByUserIdAndMessageIdIn(@Param("userId") UUID userId,
+            @Param("messageIds") Collection<Integer> messageIds);
+}
@@ -1,15 +1,67 @@
 package com.vasyagladush.spotifymessengerbot.repositories;
 
 import com.vasyagladush.spotifymessengerbot.models.User;
+import com.vasyagladush.spotifymessengerbot.models.UserSummary;
 
+import java.util.Date;
+import java.util.List;
 import java.util.Optional;
 import java.util.UUID;
 
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
 import org.springframework.data.repository.CrudRepository;
+import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
 
 @Repository
 public interface UserRepository extends CrudRepository<User, UUID> {
     Optional<User> findFirstByMessengerPlatformAndMessengerUserIdAndMusicProviderPlatform(String messengerPlatform,
             String messengerUserId, String musicProviderPlatform);
+
+    // Selects only the summary columns. A derived query can't do that here: as
+    // User implements UserSummary, Spring Data would read the whole entity
+    @Query("SELECT new com.vasyagladush.spotifymessengerbot.models.UserSummaryRow(u.id, u.messengerPlatform,"
+            + " u.messengerUserId, u.musicProviderPlatform, u.autoclear) FROM User u"
+            + " WHERE u.messengerPlatform = :messengerPlatform AND u.messengerUserId = :messengerUserId"
+            + " AND u.musicProviderPlatform = :musicProviderPlatform")
+    Optional<UserSummary> findSummaryByMessengerPlatformAndMessengerUserIdAndMusicProviderPlatform(
+            @Param("messengerPlatform") String messengerPlatform, @Param("messengerUserId") String messengerUserId,
+            @Param("musicProviderPlatform") String musicProviderPlatform);
+
+    @Transactional
+    @Modifying
+    @Query("UPDATE User u SET u.autoclear = :autoclear WHERE u.id = :id")
+    int updateAutoclear(@Param("id") UUID id, @Param("autoclear") boolean autoclear);
+
+    @Transactional
+    @Modifying
+    @Query("UPDATE User u SET u.lastSeenAt = :lastSeenAt WHERE u.id = :id")
+    int updateLastSeenAt(@Param("id") UUID id, @Param("lastSeenAt") Date lastSeenAt);
+
+    // Only if the expiration time is still the one read before the refresh, so
+    // tokens refreshed by another instance meanwhile aren't overwritten
+    @Transactional
+    @Modifying
+    @Query("UPDATE User u SET u.musicProviderAccessToken = :accessToken,"
+            + " u.musicProviderRefreshToken = :refreshToken, u.musicProviderAccessTokenExpiresAt = :expiresAt"
+            + " WHERE u.id = :id AND u.musicProviderAccessTokenExpiresAt = :previousExpiresAt")
+    int updateMusicProviderAccessTokensIfExpiresAt(@Param("id") UUID id,
+            @Param("previousExpiresAt") Date previousExpiresAt, @Param("accessToken") String accessToken,
+            @Param("refreshToken") String refreshToken, @Param("expiresAt") Date expiresAt);
+
+    // Keyset pagination over (expires at, id), starting after the given user
+    @Query("SELECT u FROM User u WHERE u.musicProviderPlatform = :musicProviderPlatform"
+            + " AND u.musicProviderRefreshToken IS NOT NULL"
+            + " AND u.musicProviderAccessTokenExpiresAt < :expiresBefore"
+            + " AND (u.musicProviderAccessTokenExpiresAt > :afterExpiresAt"
+            + " OR (u.musicProviderAccessTokenExpiresAt = :afterExpiresAt AND u.id > :afterId))"
+            + " AND u.lastSeenAt > :seenAfter"
+            + " ORDER BY u.musicProviderAccessTokenExpiresAt, u.id")
+    List<User> findWithMusicProviderAccessTokenExpiringBefore(
+            @Param("musicProviderPlatform") String musicProviderPlatform,
+            @Param("expiresBefore") Date expiresBefore, @Param("afterExpiresAt") Date afterExpiresAt,
+            @Param("afterId") UUID afterId, @Param("seenAfter") Date seenAfter, Pageable pageable);
 }
\ No newline at end of file
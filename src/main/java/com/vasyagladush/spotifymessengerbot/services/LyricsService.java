@@ -0,0 +1,148 @@
+package com.vasyagladush.spotifymessengerbot.services;
+
+import java.io.IOException;
+import java.util.Date;
+import java.util.Locale;
+import java.util.Optional;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import com.vasyagladush.spotifymessengerbot.caches.ExpiringLruCache;
+import com.vasyagladush.spotifymessengerbot.concurrency.SingleFlight;
+import com.vasyagladush.spotifymessengerbot.configurations.ExecutionConfiguration;
+import com.vasyagladush.spotifymessengerbot.lyricsproviders.LyricsProvider;
+import com.vasyagladush.spotifymessengerbot.lyricsproviders.SongLyrics;
+import com.vasyagladush.spotifymessengerbot.models.Lyrics;
+import com.vasyagladush.spotifymessengerbot.repositories.LyricsRepository;
+
+import io.micrometer.core.instrument.MeterRegistry;
+
+/**
+ * Looks lyrics up in the in-memory cache first, then in the lyrics table
+ * (songs with a track id only), and only then asks the lyrics providers.
+ * Lyrics fetched from a provider are written back to the table in the
+ * background. Concurrent lookups of the same song are coalesced into one.
+ */
+@Service
+public class LyricsService {
+    private static final Logger logger = LogManager.getLogger(LyricsService.class);
+
+    private final LyricsProvider lyricsProvider;
+    private final LyricsRepository repository;
+    private final ExecutorService ioExecutor;
+    private final ExpiringLruCache<String, Optional<String>> cache;
+    private final SingleFlight<String, Optional<String>> lookups;
+    private final long cacheTimeToLiveMilliseconds;
+    private final long notFoundCacheTimeToLiveMilliseconds;
+
+    @Autowired
+    public LyricsService(LyricsProvider lyricsProvider, LyricsRepository repository,
+            @Qualifier(ExecutionConfiguration.IO_EXECUTOR) ExecutorService ioExecutor,
+            @Value("${LYRICS_CACHE_MAX_SIZE:10000}") int cacheMaxSize,
+            @Value("${LYRICS_CACHE_TTL_MS:86400000}") long cacheTimeToLiveMilliseconds,
+            @Value("${LYRICS_CACHE_NOT_FOUND_TTL_MS:600000}") long notFoundCacheTimeToLiveMilliseconds,
+            @Value("${LYRICS_SHARED_LOOKUP_WAIT_TIMEOUT_MS:30000}") long sharedLookupWaitTimeoutMilliseconds,
+            MeterRegistry meterRegistry) {
+        this.lyricsProvider = lyricsProvider;
+        this.repository = repository;
+        this.ioExecutor = ioExecutor;
+        this.cache = new ExpiringLruCache<>("lyrics", cacheMaxSize, meterRegistry);
+        this.lookups = new SingleFlight<>("lyrics", sharedLookupWaitTimeoutMilliseconds, meterRegistry);
+        this.cacheTimeToLiveMilliseconds = cacheTimeToLiveMilliseconds;
+        this.notFoundCacheTimeToLiveMilliseconds = notFoundCacheTimeToLiveMilliseconds;
+    }
+
+    /**
+     * @param trackId music provider track id, used as the cache and lyrics table
+     *                key when present
+     * @return the song lyrics, or empty if no lyrics were found for the song
+     */
+    public Optional<String> getSongLyrics(final String trackId, final String songName, final String artistNames)
+            throws IOException {
+        final String cacheKey = LyricsService.constructCacheKey(trackId, songName, artistNames);
+
+        final Optional<String> cachedLyrics = this.cache.get(cacheKey);
+        if (cachedLyrics != null) {
+            logger.debug("Lyrics cache hit, key: " + cacheKey);
+            return cachedLyrics;
+        }
+
+        // Chats asking for the same song at the same time share one lookup
+        return this.lookups.execute(cacheKey, () -> this.lookUpSongLyrics(cacheKey, trackId, songName, artistNames));
+    }
+
+    private Optional<String> lookUpSongLyrics(final String cacheKey, final String trackId, final String songName,
+            final String artistNames) throws IOException {
+        // Another lookup might have finished between the cache check and this one
+        // starting
+        final Optional<String> cachedLyrics = this.cache.get(cacheKey);
+        if (cachedLyrics != null) {
+            return cachedLyrics;
+        }
+
+        if (LyricsService.hasTrackId(trackId)) {
+            final Optional<Lyrics> storedLyrics = this.repository.findById(trackId);
+            if (storedLyrics.isPresent()) {
+                logger.debug("Lyrics found in the database, track id: " + trackId);
+                final Optional<String> lyrics = Optional.of(storedLyrics.get().getLyrics());
+                this.cache.put(cacheKey, lyrics, this.cacheTimeToLiveMilliseconds);
+                return lyrics;
+            }
+        }
+
+        final Optional<SongLyrics> fetchedLyrics = this.lyricsProvider.getSongLyrics(trackId, songName, artistNames);
+        if (fetchedLyrics.isPresent() && LyricsService.hasTrackId(trackId)) {
+            this.storeInBackground(trackId, fetchedLyrics.get());
+        }
+
+        final Optional<String> lyrics = fetchedLyrics.map(SongLyrics::getLyrics);
+        this.cache.put(cacheKey, lyrics,
+                lyrics.isPresent() ? this.cacheTimeToLiveMilliseconds : this.notFoundCacheTimeToLiveMilliseconds);
+        return lyrics;
+    }
+
+    private void storeInBackground(final String trackId, final SongLyrics songLyrics) {
+        final Lyrics lyrics = new Lyrics();
+        lyrics.setTrackId(trackId);
+        lyrics.setLyrics(songLyrics.getLyrics());
+        lyrics.setSourceUrl(songLyrics.getSourceUrl());
+        lyrics.setFetchedAt(new Date());
+
+        try {
+            this.ioExecutor.execute(() -> {
+                try {
+                    this.repository.save(lyrics);
+                    logger.debug("Lyrics stored in the database, track id: " + trackId);
+                } catch (RuntimeException e) {
+                    logger.error("Error storing lyrics, track id: " + trackId + ", error message: " + e.getMessage());
+                    logger.trace(e.getStackTrace());
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            // Shutting down, the lyrics are going to be fetched again next time
+            logger.warn("Lyrics not stored, track id: " + trackId + ", error message: " + e.getMessage());
+        }
+    }
+
+    private static boolean hasTrackId(final String trackId) {
+        return trackId != null && !trackId.isBlank();
+    }
+
+    private static String constructCacheKey(final String trackId, final String songName, final String artistNames) {
+        if (LyricsService.hasTrackId(trackId)) {
+            return "track:" + trackId;
+        }
+        return "song:" + LyricsService.normalize(songName) + "|" + LyricsService.normalize(artistNames);
+    }
+
+    private static String normalize(final String value) {
+        return value == null ? "" : value.trim().replaceAll("\\s+", " ").toLowerCase(Locale.ROOT);
+    }
+}
@@ -0,0 +1,138 @@
+package com.vasyagladush.spotifymessengerbot.services;
+
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import com.vasyagladush.spotifymessengerbot.repositories.MessageToClearRepository;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PreDestroy;
+
+/**
+ * Holds changes to messages to clear in memory and writes them to the database
+ * periodically and on shutdown. Used by {@link UserService} for all changes
+ * when USER_WRITE_BEHIND_ENABLED=true, otherwise only for messages tracked
+ * after their update was processed.
+ */
+@Component
+class MessagesToClearWriteBehindBuffer {
+    private static final Logger logger = LogManager.getLogger(MessagesToClearWriteBehindBuffer.class);
+
+    private final MessageToClearRepository repository;
+    private final TransactionTemplate transactionTemplate;
+    private final ConcurrentHashMap<UUID, PendingMessagesToClear> pendingChanges = new ConcurrentHashMap<>();
+    // Changes taken out of pendingChanges that are being written right now
+    private final ConcurrentHashMap<UUID, PendingMessagesToClear> writingChanges = new ConcurrentHashMap<>();
+
+    private final Counter flushedUsersCounter;
+    private final Counter failedFlushesCounter;
+
+    @Autowired
+    MessagesToClearWriteBehindBuffer(MessageToClearRepository repository,
+            PlatformTransactionManager transactionManager, MeterRegistry meterRegistry) {
+        this.repository = repository;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+
+        Gauge.builder("users.write.behind.pending", this.pendingChanges, Map::size)
+                .description("Users with messages to clear changes not written to the database yet")
+                .register(meterRegistry);
+        this.flushedUsersCounter = Counter.builder("users.write.behind.flushed").register(meterRegistry);
+        this.failedFlushesCounter = Counter.builder("users.write.behind.failures").register(meterRegistry);
+    }
+
+    void add(final UUID userId, final PendingMessagesToClear changes) {
+        this.pendingChanges.compute(userId, (key, pending) -> {
+            if (pending == null) {
+                pending = new PendingMessagesToClear();
+            }
+            pending.merge(changes);
+            return pending;
+        });
+    }
+
+    /**
+     * Adds the changes only if changes of the user are held or being written, so
+     * that they are written after those
+     *
+     * @return false if they weren't added, to be written by the caller then
+     */
+    boolean addIfBuffered(final UUID userId, final PendingMessagesToClear changes) {
+        final boolean[] added = { false };
+        this.pendingChanges.compute(userId, (key, pending) -> {
+            // Changes move to writingChanges while their entry is locked here
+            if (pending == null && !this.writingChanges.containsKey(userId)) {
+                return null;
+            }
+            if (pending == null) {
+                pending = new PendingMessagesToClear();
+            }
+            pending.merge(changes);
+            added[0] = true;
+            return pending;
+        });
+        return added[0];
+    }
+
+    List<Integer> applyTo(final UUID userId, List<Integer> messageIds) {
+        final PendingMessagesToClear writing = this.writingChanges.get(userId);
+        if (writing != null) {
+            messageIds = writing.applyTo(messageIds);
+        }
+        final PendingMessagesToClear pending = this.pendingChanges.get(userId);
+        return pending == null ? messageIds : pending.applyTo(messageIds);
+    }
+
+    @Scheduled(fixedDelayString = "${USER_WRITE_BEHIND_FLUSH_INTERVAL_MS:5000}")
+    public void flush() {
+        for (UUID userId : this.pendingChanges.keySet()) {
+            // Changes added while these are written go to a new pending entry
+            final PendingMessagesToClear[] taken = { null };
+            this.pendingChanges.computeIfPresent(userId, (key, pending) -> {
+                this.writingChanges.put(userId, pending);
+                taken[0] = pending;
+                return null;
+            });
+            final PendingMessagesToClear changes = taken[0];
+            if (changes == null) {
+                continue;
+            }
+
+            try {
+                this.transactionTemplate.executeWithoutResult(status -> changes.writeTo(this.repository, userId));
+                this.flushedUsersCounter.increment();
+            } catch (RuntimeException e) {
+                this.failedFlushesCounter.increment();
+                logger.error("Error writing messages to clear, user id: " + userId + ", error message: "
+                        + e.getMessage());
+                logger.trace(e.getStackTrace());
+                // Put back in front of anything added meanwhile, retried on the next flush
+                this.pendingChanges.compute(userId, (key, newerChanges) -> {
+                    if (newerChanges != null) {
+                        changes.merge(newerChanges);
+                    }
+                    return changes;
+                });
+            } finally {
+                this.writingChanges.remove(userId, changes);
+            }
+        }
+    }
+
+    @PreDestroy
+    public void flushOnShutdown() {
+        logger.info("Writing buffered messages to clear before shutdown, users: " + this.pendingChanges.size());
+        this.flush();
+    }
+}
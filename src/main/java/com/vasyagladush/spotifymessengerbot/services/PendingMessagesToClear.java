@@ -0,0 +1,69 @@
+package com.vasyagladush.spotifymessengerbot.services;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.UUID;
+
+import com.vasyagladush.spotifymessengerbot.models.MessageToClear;
+import com.vasyagladush.spotifymessengerbot.repositories.MessageToClearRepository;
+
+/**
+ * Changes to a user's messages to clear that are not written to the database
+ * yet: ids to add and ids to remove. Messenger message ids are never reused, so
+ * an id removed here is never added again.
+ */
+class PendingMessagesToClear {
+    private final LinkedHashSet<Integer> addedMessageIds = new LinkedHashSet<>();
+    private final LinkedHashSet<Integer> removedMessageIds = new LinkedHashSet<>();
+
+    synchronized void add(final Integer messageId) {
+        this.addedMessageIds.add(messageId);
+    }
+
+    synchronized void remove(final Collection<Integer> messageIds) {
+        for (Integer messageId : messageIds) {
+            if (!this.addedMessageIds.remove(messageId)) {
+                this.removedMessageIds.add(messageId);
+            }
+        }
+    }
+
+    // Applies changes that were made after the ones already held here
+    synchronized void merge(final PendingMessagesToClear newerChanges) {
+        synchronized (newerChanges) {
+            this.remove(newerChanges.removedMessageIds);
+            this.addedMessageIds.addAll(newerChanges.addedMessageIds);
+        }
+    }
+
+    synchronized List<Integer> applyTo(final List<Integer> messageIds) {
+        final List<Integer> result = new ArrayList<>(messageIds.size() + this.addedMessageIds.size());
+        for (Integer messageId : messageIds) {
+            if (!this.removedMessageIds.contains(messageId)) {
+                result.add(messageId);
+            }
+        }
+        result.addAll(this.addedMessageIds);
+        return result;
+    }
+
+    synchronized boolean isEmpty() {
+        return this.addedMessageIds.isEmpty() && this.removedMessageIds.isEmpty();
+    }
+
+    // Expected to run in a transaction
+    synchronized void writeTo(final MessageToClearRepository repository, final UUID userId) {
+        if (!this.removedMessageIds.isEmpty()) {
+            repository.deleteByUserIdAndMessageIdIn(userId, this.removedMessageIds);
+        }
+        if (!this.addedMessageIds.isEmpty()) {
+            final List<MessageToClear> messagesToClear = new ArrayList<>(this.addedMessageIds.size());
+            for (Integer messageId : this.addedMessageIds) {
+                messagesToClear.add(new MessageToClear(userId, messageId));
+            }
+            repository.saveAll(messagesToClear);
+        }
+    }
+}
@@ -1,42 +1,85 @@
 package com.vasyagladush.spotifymessengerbot.services;
 
-import java.util.ArrayList;
-import java.util.Arrays;
+import java.util.Collection;
 import java.util.Date;
+import java.util.List;
 import java.util.NoSuchElementException;
 import java.util.Optional;
 import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
 
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.PageRequest;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
 
-import com.fasterxml.jackson.core.JsonProcessingException;
-import com.fasterxml.jackson.databind.JsonMappingException;
-import com.fasterxml.jackson.databind.ObjectMapper;
+import com.vasyagladush.spotifymessengerbot.caches.ExpiringLruCache;
 import com.vasyagladush.spotifymessengerbot.models.MessengerPlatform;
 import com.vasyagladush.spotifymessengerbot.models.MusicProviderPlatform;
 import com.vasyagladush.spotifymessengerbot.models.User;
+import com.vasyagladush.spotifymessengerbot.models.UserSummary;
+import com.vasyagladush.spotifymessengerbot.repositories.MessageToClearRepository;
 import com.vasyagladush.spotifymessengerbot.repositories.UserRepository;
 
+import io.micrometer.core.instrument.MeterRegistry;
+
 @Service
 public class UserService {
     private final UserRepository repository;
-    private static final ObjectMapper objectMapper = new ObjectMapper();
+    private final MessageToClearRepository messageToClearRepository;
+    private final MessagesToClearWriteBehindBuffer messagesToClearWriteBehindBuffer;
+    private final TransactionTemplate transactionTemplate;
+    private final boolean writeBehindEnabled;
+    private final ConcurrentHashMap<UUID, UserUnitOfWork> unitsOfWork = new ConcurrentHashMap<>();
+    // Users by messenger platform, messenger user id and music provider
+    // platform, either full entities or summaries. Each instance has its own, so
+    // changes made through another instance are seen once the entry expires,
+    // except for the tokens of a user who has just authorized (see
+    // withStoredTokensIfMissing)
+    private final ExpiringLruCache<String, UserSummary> cache;
+    private final long cacheTimeToLiveMilliseconds;
+    // Users whose last seen time this instance wrote recently
+    private final ExpiringLruCache<UUID, Boolean> recentlySeenUsers;
+    private final long lastSeenWriteIntervalMilliseconds;
     private static final Logger logger = LogManager.getLogger(UserService.class);
 
     @Autowired
-    public UserService(UserRepository repository) {
+    public UserService(UserRepository repository, MessageToClearRepository messageToClearRepository,
+            MessagesToClearWriteBehindBuffer messagesToClearWriteBehindBuffer,
+            PlatformTransactionManager transactionManager,
+            @Value("${USER_WRITE_BEHIND_ENABLED:false}") boolean writeBehindEnabled,
+            @Value("${USER_CACHE_MAX_SIZE:10000}") int cacheMaxSize,
+            @Value("${USER_CACHE_TTL_MS:60000}") long cacheTimeToLiveMilliseconds,
+            @Value("${USER_LAST_SEEN_WRITE_INTERVAL_MS:600000}") long lastSeenWriteIntervalMilliseconds,
+            MeterRegistry meterRegistry) {
         this.repository = repository;
+        this.messageToClearRepository = messageToClearRepository;
+        this.messagesToClearWriteBehindBuffer = messagesToClearWriteBehindBuffer;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.writeBehindEnabled = writeBehindEnabled;
+        this.cache = new ExpiringLruCache<>("users", cacheMaxSize, UserService::estimateSize, meterRegistry);
+        this.cacheTimeToLiveMilliseconds = cacheTimeToLiveMilliseconds;
+        this.recentlySeenUsers = new ExpiringLruCache<>("users.last.seen", cacheMaxSize, meterRegistry);
+        this.lastSeenWriteIntervalMilliseconds = lastSeenWriteIntervalMilliseconds;
     }
 
     public User createOrUpdate(final MessengerPlatform messengerPlatform, final String messengerUserId,
             final MusicProviderPlatform musicProviderPlatform) {
+        final UserSummary cachedUser = cache.get(UserService.constructCacheKey(messengerPlatform.name(),
+                messengerUserId, musicProviderPlatform.name()));
+        if (cachedUser instanceof User) {
+            return this.withStoredTokensIfMissing((User) cachedUser);
+        }
+
         final Optional<User> existingUserOptional = this.get(messengerPlatform, messengerUserId, musicProviderPlatform);
         if (existingUserOptional.isPresent()) {
             final User existingUser = existingUserOptional.get();
             existingUser.setMusicProviderPlatform(musicProviderPlatform.name());
+            this.cache(existingUser);
             return existingUser;
         }
 
@@ -44,10 +87,81 @@ public class UserService {
         newUser.setMessengerPlatform(messengerPlatform.name());
         newUser.setMessengerUserId(messengerUserId);
         newUser.setMusicProviderPlatform(musicProviderPlatform.name());
-        repository.save(newUser);
+        this.save(newUser);
         return newUser;
     }
 
+    /**
+     * Like {@link #createOrUpdate}, but for commands which don't need the music
+     * provider tokens only the summary columns are loaded for an existing user
+     */
+    public UserSummary getSummaryOrCreate(final MessengerPlatform messengerPlatform, final String messengerUserId,
+            final MusicProviderPlatform musicProviderPlatform) {
+        final String cacheKey = UserService.constructCacheKey(messengerPlatform.name(), messengerUserId,
+                musicProviderPlatform.name());
+        final UserSummary cachedUser = cache.get(cacheKey);
+        if (cachedUser != null) {
+            return cachedUser;
+        }
+
+        final Optional<UserSummary> userSummary = repository
+                .findSummaryByMessengerPlatformAndMessengerUserIdAndMusicProviderPlatform(messengerPlatform.name(),
+                        messengerUserId, musicProviderPlatform.name());
+        if (userSummary.isPresent()) {
+            cache.put(cacheKey, userSummary.get(), cacheTimeToLiveMilliseconds);
+            return userSummary.get();
+        }
+        return this.createOrUpdate(messengerPlatform, messengerUserId, musicProviderPlatform);
+    }
+
+    /**
+     * @return the full user, loading the rest of the row if only the summary was
+     *         loaded before
+     */
+    public User getWithMusicProviderTokens(final UserSummary userSummary) throws NoSuchElementException {
+        if (userSummary instanceof User) {
+            return this.withStoredTokensIfMissing((User) userSummary);
+        }
+        final User user = this.get(userSummary.getId()).get();
+        this.cache(user);
+        return user;
+    }
+
+    // The user may have authorized since it was cached, with the callback
+    // handled by another instance
+    private User withStoredTokensIfMissing(final User user) {
+        if (user.getMusicProviderAccessToken() != null || user.getId() == null) {
+            return user;
+        }
+        final Optional<User> storedUser = this.get(user.getId());
+        if (storedUser.isEmpty() || storedUser.get().getMusicProviderAccessToken() == null) {
+            return user;
+        }
+        this.cache(storedUser.get());
+        return storedUser.get();
+    }
+
+    /**
+     * Records that the user has just sent something. Only the background access
+     * token refresh reads it, so it is written at most once per interval
+     */
+    public void markSeen(final UserSummary user) {
+        if (recentlySeenUsers.get(user.getId()) != null) {
+            return;
+        }
+        recentlySeenUsers.put(user.getId(), Boolean.TRUE, lastSeenWriteIntervalMilliseconds);
+        repository.updateLastSeenAt(user.getId(), new Date());
+    }
+
+    /**
+     * Drops the cached copy of the user, for when the user row was changed
+     * through another instance of the entity
+     */
+    public void invalidateCache(final UserSummary user) {
+        cache.invalidate(UserService.constructCacheKey(user));
+    }
+
+    // Not written through to the cache, callers are expected to invalidate it
     public User updateWithMusicProviderAccessTokens(final String messengerUserId,
             final String accessToken, final String refreshToken,
             final Date accessTokenExpiresAt) throws NoSuchElementException {
@@ -67,10 +181,32 @@ public class UserService {
         if (refreshToken != null) {
             user.setMusicProviderRefreshToken(refreshToken);
         }
-        repository.save(user);
+        this.save(user);
         return user;
     }
 
+    /**
+     * Like {@link #updateWithMusicProviderAccessTokens(User, String, String, Date)},
+     * but only if the stored tokens are still the ones of the given user, e.g.
+     * not refreshed by another instance since it was read
+     *
+     * @return false if they aren't, the given user is left as is then
+     */
+    public boolean updateWithMusicProviderAccessTokensIfUnchanged(final User user, final String accessToken,
+            final String refreshToken, final Date accessTokenExpiresAt) {
+        final String newRefreshToken = refreshToken != null ? refreshToken : user.getMusicProviderRefreshToken();
+        if (repository.updateMusicProviderAccessTokensIfExpiresAt(user.getId(),
+                user.getMusicProviderAccessTokenExpiresAt(), accessToken, newRefreshToken,
+                accessTokenExpiresAt) == 0) {
+            return false;
+        }
+        user.setMusicProviderAccessToken(accessToken);
+        user.setMusicProviderAccessTokenExpiresAt(accessTokenExpiresAt);
+        user.setMusicProviderRefreshToken(newRefreshToken);
+        this.cache(user);
+        return true;
+    }
+
     public Optional<User> get(final UUID id) {
         return repository.findById(id);
     }
@@ -81,42 +217,156 @@ public class UserService {
                 messengerPlatform.name(), messengerUserId, musicProviderPlatform.name());
     }
 
-    public ArrayList<String> getMessagesToClearAsArrayListOfString(final User user)
-            throws JsonProcessingException, JsonMappingException {
-        final String messagesToClear = user.getMessagesToClear();
+    /**
+     * @return up to limit users of the music provider seen after seenAfter whose
+     *         access token expires before expiresBefore, ordered by expiration
+     *         time, starting after the given expiration time and user id
+     */
+    public List<User> getWithMusicProviderAccessTokenExpiringBefore(
+            final MusicProviderPlatform musicProviderPlatform, final Date expiresBefore, final Date afterExpiresAt,
+            final UUID afterId, final Date seenAfter, final int limit) {
+        return repository.findWithMusicProviderAccessTokenExpiringBefore(musicProviderPlatform.name(), expiresBefore,
+                afterExpiresAt, afterId, seenAfter, PageRequest.of(0, limit));
+    }
+
+    /**
+     * Starts collecting the changes made to the user until the returned unit of
+     * work is closed. Meant to be used with try-with-resources around processing
+     * of one messenger update.
+     */
+    public UserUnitOfWork beginUnitOfWork(final UserSummary user) {
+        final UserUnitOfWork unitOfWork = new UserUnitOfWork(this, user);
+        unitsOfWork.put(user.getId(), unitOfWork);
+        return unitOfWork;
+    }
 
-        if (messagesToClear == null || messagesToClear.equals("[]"))
-            return new ArrayList<String>();
+    void completeUnitOfWork(final UserUnitOfWork unitOfWork) {
+        final UserSummary user = unitOfWork.getUser();
+        unitsOfWork.remove(user.getId(), unitOfWork);
+        // Changes from other threads that still found the unit of work in the map
+        // are written by them from now on
+        unitOfWork.markCompleted();
 
-        return new ArrayList<String>(Arrays.asList(objectMapper.readValue(messagesToClear, String[].class)));
+        final PendingMessagesToClear pendingMessagesToClear = unitOfWork.getPendingMessagesToClear();
+        final boolean writeMessagesToClear = !pendingMessagesToClear.isEmpty()
+                && !this.addToWriteBehindBuffer(user, pendingMessagesToClear);
+        final Boolean pendingAutoclear = unitOfWork.getPendingAutoclear();
+        if (!writeMessagesToClear && pendingAutoclear == null) {
+            return;
+        }
+
+        // Everything collected is written in one transaction
+        transactionTemplate.executeWithoutResult(status -> {
+            if (writeMessagesToClear) {
+                pendingMessagesToClear.writeTo(messageToClearRepository, user.getId());
+            }
+            if (pendingAutoclear != null) {
+                repository.updateAutoclear(user.getId(), pendingAutoclear);
+            }
+        });
+        if (pendingAutoclear != null) {
+            this.invalidateCache(user);
+        }
     }
 
-    public void addMessageToClear(final User user, final String messageId)
-            throws JsonProcessingException, JsonMappingException {
-        logger.debug("inside addMessageToClear");
+    /**
+     * @return ids of the messages to clear, in the order they were added
+     */
+    public List<Integer> getMessagesToClear(final UserSummary user) {
+        List<Integer> messageIds = messageToClearRepository.findMessageIdsByUserId(user.getId());
+        messageIds = messagesToClearWriteBehindBuffer.applyTo(user.getId(), messageIds);
+        final UserUnitOfWork unitOfWork = unitsOfWork.get(user.getId());
+        return unitOfWork == null ? messageIds : unitOfWork.getPendingMessagesToClear().applyTo(messageIds);
+    }
 
-        final ArrayList<String> messagesToClearArrayList = this.getMessagesToClearAsArrayListOfString(user);
-        logger.debug("before .add() messagesToClearArrayList: " + messagesToClearArrayList.toString());
+    /**
+     * Outside a unit of work, e.g. for messages that were sent after their
+     * update was processed, the message is added through the write-behind buffer
+     * whether or not write-behind is enabled, so that the sending thread doesn't
+     * wait for the database
+     */
+    public void addMessageToClear(final UserSummary user, final Integer messageId) {
+        logger.debug("add message to clear, user id: " + user.getId() + ", messageId: " + messageId);
+        final UserUnitOfWork unitOfWork = unitsOfWork.get(user.getId());
+        if (unitOfWork != null && unitOfWork.addMessageToClear(messageId)) {
+            return;
+        }
+        final PendingMessagesToClear changes = new PendingMessagesToClear();
+        changes.add(messageId);
+        messagesToClearWriteBehindBuffer.add(user.getId(), changes);
+    }
 
-        messagesToClearArrayList.add(messageId);
-        logger.debug("after .add() messagesToClearArrayList: " + messagesToClearArrayList.toString());
+    // Only the given messages are removed, so messages added in the meantime
+    // are kept for the next clear
+    public void resetMessagesToClear(final UserSummary user, final Collection<Integer> clearedMessageIds) {
+        if (clearedMessageIds.isEmpty())
+            return;
+        final UserUnitOfWork unitOfWork = unitsOfWork.get(user.getId());
+        if (unitOfWork != null && unitOfWork.removeMessagesToClear(clearedMessageIds)) {
+            return;
+        }
+        final PendingMessagesToClear changes = new PendingMessagesToClear();
+        changes.remove(clearedMessageIds);
+        if (!this.addToWriteBehindBuffer(user, changes)) {
+            messageToClearRepository.deleteByUserIdAndMessageIdIn(user.getId(), clearedMessageIds);
+        }
+    }
 
-        final String[] newMessagesToClearArray = messagesToClearArrayList.toArray(new String[0]);
-        logger.debug("newMessagesToClearArray: " + newMessagesToClearArray.toString());
-        logger.debug("resulting JSON string: " + objectMapper.writeValueAsString(newMessagesToClearArray));
+    // Always with write-behind, otherwise only while the buffer holds changes of
+    // the user, e.g. messages sent after their update was processed, which have
+    // to be written before these
+    private boolean addToWriteBehindBuffer(final UserSummary user, final PendingMessagesToClear changes) {
+        if (writeBehindEnabled) {
+            messagesToClearWriteBehindBuffer.add(user.getId(), changes);
+            return true;
+        }
+        return messagesToClearWriteBehindBuffer.addIfBuffered(user.getId(), changes);
+    }
 
-        user.setMessagesToClear(objectMapper.writeValueAsString(newMessagesToClearArray));
+    // Writes through to the cache
+    private void save(final User user) {
         repository.save(user);
+        this.cache(user);
     }
 
-    public void resetMessagesToClear(final User user) {
-        user.setMessagesToClear(null);
-        repository.save(user);
+    private void cache(final User user) {
+        cache.put(UserService.constructCacheKey(user), user, cacheTimeToLiveMilliseconds);
     }
 
-    public boolean toggleAutoclear(final User user) {
-        user.setAutoclear(!user.isAutoclear());
-        repository.save(user);
-        return user.isAutoclear();
+    private static String constructCacheKey(final UserSummary user) {
+        return UserService.constructCacheKey(user.getMessengerPlatform(), user.getMessengerUserId(),
+                user.getMusicProviderPlatform());
+    }
+
+    private static String constructCacheKey(final String messengerPlatform, final String messengerUserId,
+            final String musicProviderPlatform) {
+        return messengerPlatform + ":" + messengerUserId + ":" + musicProviderPlatform;
+    }
+
+    // Rough size of a cached user: object headers and fields plus the strings
+    private static long estimateSize(final UserSummary user) {
+        long size = 256 + 2L * UserService.length(user.getMessengerUserId());
+        if (user instanceof User) {
+            size += 2L * (UserService.length(((User) user).getMusicProviderAccessToken())
+                    + UserService.length(((User) user).getMusicProviderRefreshToken()));
+        }
+        return size;
+    }
+
+    private static int length(final String value) {
+        return value == null ? 0 : value.length();
+    }
+
+    /**
+     * @return the new autoclear value, the given user is left as is
+     */
+    public boolean toggleAutoclear(final UserSummary user) {
+        final boolean autoclear = !user.isAutoclear();
+        final UserUnitOfWork unitOfWork = unitsOfWork.get(user.getId());
+        if (unitOfWork == null || !unitOfWork.setPendingAutoclear(autoclear)) {
+            repository.updateAutoclear(user.getId(), autoclear);
+            this.invalidateCache(user);
+        }
+        return autoclear;
     }
 }
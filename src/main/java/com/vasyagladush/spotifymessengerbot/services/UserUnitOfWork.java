@@ -0,0 +1,84 @@
+package com.vasyagladush.spotifymessengerbot.services;
+
+import java.util.Collection;
+
+import com.vasyagladush.spotifymessengerbot.models.UserSummary;
+
+/**
+ * Collects changes made to a user while one messenger update is processed, so
+ * they are written at once when the unit of work is closed instead of one
+ * save per change. Created by {@link UserService#beginUnitOfWork(UserSummary)}.
+ */
+public class UserUnitOfWork implements AutoCloseable {
+    private final UserService userService;
+    private final UserSummary user;
+    private final PendingMessagesToClear pendingMessagesToClear = new PendingMessagesToClear();
+    private Boolean pendingAutoclear;
+    // Set once the changes are being written, later changes are written on their
+    // own by the caller
+    private boolean completed;
+
+    UserUnitOfWork(UserService userService, UserSummary user) {
+        this.userService = userService;
+        this.user = user;
+    }
+
+    public UserSummary getUser() {
+        return this.user;
+    }
+
+    PendingMessagesToClear getPendingMessagesToClear() {
+        return this.pendingMessagesToClear;
+    }
+
+    // null if autoclear wasn't changed
+    synchronized Boolean getPendingAutoclear() {
+        return this.pendingAutoclear;
+    }
+
+    /**
+     * @return false if the unit of work is already completed and the message
+     *         was not added
+     */
+    synchronized boolean addMessageToClear(final Integer messageId) {
+        if (this.completed) {
+            return false;
+        }
+        this.pendingMessagesToClear.add(messageId);
+        return true;
+    }
+
+    /**
+     * @return false if the unit of work is already completed and the messages
+     *         were not removed
+     */
+    synchronized boolean removeMessagesToClear(final Collection<Integer> messageIds) {
+        if (this.completed) {
+            return false;
+        }
+        this.pendingMessagesToClear.remove(messageIds);
+        return true;
+    }
+
+    /**
+     * @return false if the unit of work is already completed and autoclear was
+     *         not set
+     */
+    synchronized boolean setPendingAutoclear(final boolean autoclear) {
+        if (this.completed) {
+            return false;
+        }
+        this.pendingAutoclear = autoclear;
+        return true;
+    }
+
+    // No changes are accepted after this, so the pending ones can be written
+    synchronized void markCompleted() {
+        this.completed = true;
+    }
+
+    @Override
+    public void close() {
+        this.userService.completeUnitOfWork(this);
+    }
+}
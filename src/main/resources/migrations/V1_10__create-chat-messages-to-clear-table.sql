@@ -0,0 +1,19 @@
+CREATE TABLE IF NOT EXISTS public.chat_messages_to_clear (
+    id bigserial NOT NULL,
+    user_id uuid NOT NULL,
+    message_id integer NOT NULL,
+    CONSTRAINT "PK_chat_messages_to_clear_id" PRIMARY KEY ("id"),
+    CONSTRAINT "FK_chat_messages_to_clear_user_id" FOREIGN KEY ("user_id") REFERENCES public.users ("id") ON DELETE CASCADE
+);
+
+CREATE INDEX IF NOT EXISTS "IDX_chat_messages_to_clear_user_id" ON public.chat_messages_to_clear ("user_id");
+
+-- Move the message ids kept as a JSON array string in users.messages_to_clear
+INSERT INTO public.chat_messages_to_clear (user_id, message_id)
+SELECT users.id, message_ids.message_id::integer
+FROM public.users
+CROSS JOIN LATERAL jsonb_array_elements_text(users.messages_to_clear::jsonb) WITH ORDINALITY AS message_ids(message_id, position)
+WHERE users.messages_to_clear IS NOT NULL
+ORDER BY users.id, message_ids.position;
+
+ALTER TABLE public.users DROP COLUMN messages_to_clear;
@@ -0,0 +1,3 @@
+CREATE INDEX IF NOT EXISTS "IDX_users_music_provider_access_token_expires_at"
+    ON public.users (music_provider_platform, music_provider_access_token_expires_at, id)
+    WHERE music_provider_refresh_token IS NOT NULL;
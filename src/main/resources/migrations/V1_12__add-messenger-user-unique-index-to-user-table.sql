@@ -0,0 +1,19 @@
+-- The unique constraint declared on the User entity was never created, so drop
+-- duplicated users first, keeping the one authorized with the music provider
+DELETE FROM public.users
+WHERE id IN (
+    SELECT id FROM (
+        SELECT id, row_number() OVER (
+            PARTITION BY messenger_platform, messenger_user_id, music_provider_platform
+            ORDER BY music_provider_refresh_token IS NULL, music_provider_access_token_expires_at DESC NULLS LAST, id
+        ) AS position
+        FROM public.users
+    ) AS ranked_users
+    WHERE ranked_users.position > 1
+);
+
+-- Includes the columns of the user summary, so the webhook lookup is an
+-- index-only scan
+CREATE UNIQUE INDEX IF NOT EXISTS "UQ_users_messenger_platform_user_id_music_provider_platform"
+    ON public.users (messenger_platform, messenger_user_id, music_provider_platform)
+    INCLUDE (id, autoclear);
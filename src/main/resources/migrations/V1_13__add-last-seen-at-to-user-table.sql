@@ -0,0 +1,10 @@
+ALTER TABLE public.users ADD COLUMN last_seen_at timestamp with time zone;
+
+-- Only the tokens of users seen recently are refreshed in the background, the
+-- index carries the last seen time so the others are skipped without reading
+-- their rows
+DROP INDEX IF EXISTS public."IDX_users_music_provider_access_token_expires_at";
+CREATE INDEX IF NOT EXISTS "IDX_users_music_provider_access_token_expires_at"
+    ON public.users (music_provider_platform, music_provider_access_token_expires_at, id)
+    INCLUDE (last_seen_at)
+    WHERE music_provider_refresh_token IS NOT NULL;
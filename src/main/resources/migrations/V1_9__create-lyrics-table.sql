@@ -0,0 +1,7 @@
+CREATE TABLE IF NOT EXISTS public.lyrics (
+    track_id character varying NOT NULL,
+    lyrics text NOT NULL,
+    source_url character varying,
+    fetched_at timestamp with time zone NOT NULL DEFAULT now(),
+    CONSTRAINT "PK_lyrics_track_id" PRIMARY KEY ("track_id")
+);
@@ -0,0 +1,62 @@
+package com.vasyagladush.spotifymessengerbot;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.telegram.telegrambots.meta.api.objects.Update;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.vasyagladush.spotifymessengerbot.musicproviders.spotify.types.SpotifyGetCurrentlyPlayingTrackResponse;
+
+/**
+ * Deserialization of the payloads read on every lyrics request: the Telegram
+ * update and the Spotify currently-playing response, which is mostly fields
+ * the bot ignores. Payloads are in src/test/resources/benchmarks.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class JsonDeserializationBenchmark {
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    private byte[] currentlyPlayingTrackResponse;
+    private byte[] update;
+
+    @Setup
+    public void setUp() throws IOException {
+        this.currentlyPlayingTrackResponse = JsonDeserializationBenchmark
+                .readPayload("spotify-currently-playing.json");
+        this.update = JsonDeserializationBenchmark.readPayload("telegram-update.json");
+    }
+
+    private static byte[] readPayload(final String fileName) throws IOException {
+        try (InputStream in = JsonDeserializationBenchmark.class.getResourceAsStream("/benchmarks/" + fileName)) {
+            return in.readAllBytes();
+        }
+    }
+
+    @Benchmark
+    public SpotifyGetCurrentlyPlayingTrackResponse spotifyCurrentlyPlayingTrack() throws IOException {
+        return this.objectMapper.readValue(this.currentlyPlayingTrackResponse,
+                SpotifyGetCurrentlyPlayingTrackResponse.class);
+    }
+
+    @Benchmark
+    public Update telegramUpdate() throws IOException {
+        return this.objectMapper.readValue(this.update, Update.class);
+    }
+}
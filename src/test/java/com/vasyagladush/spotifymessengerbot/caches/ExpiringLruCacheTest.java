@@ -0,0 +1,70 @@
+package com.vasyagladush.spotifymessengerbot.caches;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+import org.junit.jupiter.api.Test;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+class ExpiringLruCacheTest {
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+    @Test
+    void returnsValuesUntilTheyExpire() throws InterruptedException {
+        final ExpiringLruCache<String, String> cache = new ExpiringLruCache<>("test", 10, this.meterRegistry);
+        cache.put("short", "a", 50);
+        cache.put("long", "b", 60_000);
+
+        assertEquals("a", cache.get("short"));
+        Thread.sleep(100);
+        assertNull(cache.get("short"));
+        assertEquals("b", cache.get("long"));
+        // The expired entry was dropped when it was read
+        assertEquals(1, cache.size());
+    }
+
+    @Test
+    void evictsTheLeastRecentlyUsedEntryWhenFull() {
+        final ExpiringLruCache<String, String> cache = new ExpiringLruCache<>("test", 2, this.meterRegistry);
+        cache.put("a", "a", 60_000);
+        cache.put("b", "b", 60_000);
+        // Makes b the least recently used one
+        cache.get("a");
+        cache.put("c", "c", 60_000);
+
+        assertEquals("a", cache.get("a"));
+        assertNull(cache.get("b"));
+        assertEquals("c", cache.get("c"));
+        assertEquals(1, this.meterRegistry.get("cache.evictions").tag("cache", "test").counter().count());
+    }
+
+    @Test
+    void tracksTheWeightOfTheEntriesItHolds() {
+        final ExpiringLruCache<String, String> cache = new ExpiringLruCache<>("test", 2, String::length,
+                this.meterRegistry);
+        cache.put("a", "12345", 60_000);
+        cache.put("b", "123", 60_000);
+        assertEquals(8, cache.getTotalWeight());
+
+        // Replaced and evicted entries no longer count
+        cache.put("b", "1", 60_000);
+        assertEquals(6, cache.getTotalWeight());
+        cache.put("c", "12", 60_000);
+        assertEquals(3, cache.getTotalWeight());
+        cache.invalidate("c");
+        assertEquals(1, cache.getTotalWeight());
+        assertEquals(1, this.meterRegistry.get("cache.estimated.bytes").tag("cache", "test").gauge().value());
+    }
+
+    @Test
+    void countsHitsAndMisses() {
+        final ExpiringLruCache<String, String> cache = new ExpiringLruCache<>("test", 10, this.meterRegistry);
+        cache.put("a", "a", 60_000);
+        cache.get("a");
+        cache.get("b");
+
+        assertEquals(1, this.meterRegistry.get("cache.gets").tag("result", "hit").counter().count());
+        assertEquals(1, this.meterRegistry.get("cache.gets").tag("result", "miss").counter().count());
+    }
+}
@@ -0,0 +1,60 @@
+package com.vasyagladush.spotifymessengerbot.concurrency;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.Test;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+class CircuitBreakerTest {
+    @Test
+    void opensAfterConsecutiveFailures() {
+        final CircuitBreaker circuitBreaker = CircuitBreakerTest.construct(3, 60000);
+
+        circuitBreaker.onFailure();
+        circuitBreaker.onFailure();
+        circuitBreaker.onSuccess();
+        circuitBreaker.onFailure();
+        circuitBreaker.onFailure();
+        assertEquals(CircuitBreaker.State.CLOSED, circuitBreaker.getState());
+        assertTrue(circuitBreaker.tryAcquire());
+
+        circuitBreaker.onFailure();
+        assertEquals(CircuitBreaker.State.OPEN, circuitBreaker.getState());
+        assertFalse(circuitBreaker.tryAcquire());
+    }
+
+    @Test
+    void letsOneTrialCallThroughOnceOpenTimeIsOver() {
+        final CircuitBreaker circuitBreaker = CircuitBreakerTest.construct(1, 0);
+        circuitBreaker.onFailure();
+        assertEquals(CircuitBreaker.State.OPEN, circuitBreaker.getState());
+
+        assertTrue(circuitBreaker.tryAcquire());
+        assertEquals(CircuitBreaker.State.HALF_OPEN, circuitBreaker.getState());
+        assertFalse(circuitBreaker.tryAcquire());
+
+        circuitBreaker.onSuccess();
+        assertEquals(CircuitBreaker.State.CLOSED, circuitBreaker.getState());
+        assertTrue(circuitBreaker.tryAcquire());
+    }
+
+    @Test
+    void failedTrialCallOpensAgain() {
+        final CircuitBreaker circuitBreaker = CircuitBreakerTest.construct(5, 0);
+        for (int i = 0; i < 5; ++i) {
+            circuitBreaker.onFailure();
+        }
+        assertTrue(circuitBreaker.tryAcquire());
+
+        // A single failure is enough while half open
+        circuitBreaker.onFailure();
+        assertEquals(CircuitBreaker.State.OPEN, circuitBreaker.getState());
+    }
+
+    private static CircuitBreaker construct(final int failureThreshold, final long openMilliseconds) {
+        return new CircuitBreaker("test", failureThreshold, openMilliseconds, new SimpleMeterRegistry());
+    }
+}
@@ -0,0 +1,129 @@
+package com.vasyagladush.spotifymessengerbot.concurrency;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+class SingleFlightTest {
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+    private final ExecutorService executor = Executors.newCachedThreadPool();
+
+    @AfterEach
+    void shutDownExecutor() {
+        this.executor.shutdownNow();
+    }
+
+    @Test
+    void concurrentCallsShareOneLoad() throws Exception {
+        final SingleFlight<String, String> singleFlight = new SingleFlight<>("test", 5000, this.meterRegistry);
+        final CountDownLatch loading = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final AtomicInteger loads = new AtomicInteger();
+
+        final Future<String> first = this.executor.submit(() -> singleFlight.execute("key", () -> {
+            loads.incrementAndGet();
+            loading.countDown();
+            release.await();
+            return "value";
+        }));
+        assertTrue(loading.await(5, TimeUnit.SECONDS));
+        final Future<String> second = this.executor.submit(() -> singleFlight.execute("key", () -> {
+            loads.incrementAndGet();
+            return "other value";
+        }));
+        // The second caller is waiting for the first load
+        this.awaitSharedCall();
+        release.countDown();
+
+        assertEquals("value", first.get(5, TimeUnit.SECONDS));
+        assertEquals("value", second.get(5, TimeUnit.SECONDS));
+        assertEquals(1, loads.get());
+    }
+
+    @Test
+    void callsAfterTheLoadFinishedLoadAgain() throws IOException {
+        final SingleFlight<String, Integer> singleFlight = new SingleFlight<>("test", 5000, this.meterRegistry);
+        final AtomicInteger loads = new AtomicInteger();
+
+        assertEquals(1, singleFlight.execute("key", loads::incrementAndGet));
+        assertEquals(2, singleFlight.execute("key", loads::incrementAndGet));
+        assertEquals(0, singleFlight.getInFlightCount());
+    }
+
+    @Test
+    void waitingCallersGetTheLoadersException() throws Exception {
+        final SingleFlight<String, String> singleFlight = new SingleFlight<>("test", 5000, this.meterRegistry);
+        final CountDownLatch loading = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final IOException failure = new IOException("provider failed");
+
+        final Future<String> first = this.executor.submit(() -> singleFlight.execute("key", () -> {
+            loading.countDown();
+            release.await();
+            throw failure;
+        }));
+        assertTrue(loading.await(5, TimeUnit.SECONDS));
+        final Future<String> second = this.executor.submit(() -> singleFlight.execute("key", () -> "value"));
+        this.awaitSharedCall();
+        release.countDown();
+
+        assertSame(failure, assertThrows(ExecutionException.class, () -> first.get(5, TimeUnit.SECONDS)).getCause());
+        assertSame(failure, assertThrows(ExecutionException.class, () -> second.get(5, TimeUnit.SECONDS)).getCause());
+    }
+
+    @Test
+    void uncheckedExceptionsAreRethrownUnwrapped() {
+        final SingleFlight<String, String> singleFlight = new SingleFlight<>("test", 5000, this.meterRegistry);
+        final IllegalStateException failure = new IllegalStateException("broken");
+
+        assertSame(failure, assertThrows(IllegalStateException.class, () -> singleFlight.execute("key", () -> {
+            throw failure;
+        })));
+    }
+
+    @Test
+    void waitingCallersGiveUpAfterTheWaitTimeout() throws Exception {
+        final SingleFlight<String, String> singleFlight = new SingleFlight<>("test", 100, this.meterRegistry);
+        final CountDownLatch loading = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+
+        final Future<String> first = this.executor.submit(() -> singleFlight.execute("key", () -> {
+            loading.countDown();
+            release.await();
+            return "value";
+        }));
+        assertTrue(loading.await(5, TimeUnit.SECONDS));
+
+        final long startedAt = System.nanoTime();
+        assertThrows(IOException.class, () -> singleFlight.execute("key", () -> "other value"));
+        assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startedAt) < 5000);
+
+        // The loader itself isn't affected
+        release.countDown();
+        assertEquals("value", first.get(5, TimeUnit.SECONDS));
+    }
+
+    // Counted right before the caller starts waiting
+    private void awaitSharedCall() throws InterruptedException {
+        final long deadline = System.currentTimeMillis() + 5000;
+        while (this.meterRegistry.get("singleflight.calls").tag("result", "shared").counter().count() < 1) {
+            assertTrue(System.currentTimeMillis() < deadline);
+            Thread.sleep(10);
+        }
+    }
+}
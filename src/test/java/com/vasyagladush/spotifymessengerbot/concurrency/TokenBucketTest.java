@@ -0,0 +1,51 @@
+package com.vasyagladush.spotifymessengerbot.concurrency;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.Test;
+
+class TokenBucketTest {
+    @Test
+    void handsOutABurstOfCapacityPermits() {
+        // Refills one permit every 1000 s, so none comes back during the test
+        final TokenBucket tokenBucket = new TokenBucket(5, 0.001);
+        for (int i = 0; i < 5; ++i) {
+            assertTrue(tokenBucket.tryAcquire());
+        }
+        assertFalse(tokenBucket.tryAcquire());
+    }
+
+    @Test
+    void refusesWithoutWaitingWhenThePermitIsTooFarAway() throws InterruptedException {
+        final TokenBucket tokenBucket = new TokenBucket(1, 0.001);
+        assertTrue(tokenBucket.tryAcquire());
+
+        final long startedAt = System.nanoTime();
+        assertFalse(tokenBucket.tryAcquire(1000));
+        assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startedAt) < 500);
+    }
+
+    @Test
+    void waitsForTheNextPermit() throws InterruptedException {
+        final TokenBucket tokenBucket = new TokenBucket(1, 10);
+        assertTrue(tokenBucket.tryAcquire());
+
+        final long startedAt = System.nanoTime();
+        assertTrue(tokenBucket.tryAcquire(1000));
+        // A permit every 100 ms
+        assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startedAt) >= 50);
+    }
+
+    @Test
+    void waitingCallersReserveTheirPermits() throws InterruptedException {
+        final TokenBucket tokenBucket = new TokenBucket(1, 10);
+        assertTrue(tokenBucket.tryAcquire());
+        assertTrue(tokenBucket.tryAcquire(1000));
+
+        // The permit refilled while waiting went to the caller above
+        assertFalse(tokenBucket.tryAcquire());
+    }
+}
@@ -0,0 +1,88 @@
+package com.vasyagladush.spotifymessengerbot.loadtest;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Latencies and errors of the requests of a load test by command, summed up
+ * as throughput, p50/p99 latency and error rate.
+ */
+class LoadTestReport {
+    private final Map<String, CommandResults> resultsByCommand = new ConcurrentHashMap<>();
+
+    void record(final String command, final long latencyNanoseconds, final boolean error) {
+        this.resultsByCommand.computeIfAbsent(command, key -> new CommandResults()).record(latencyNanoseconds,
+                error);
+    }
+
+    /**
+     * @param durationSeconds how long the requests were recorded, for the
+     *                        throughput
+     */
+    String format(final double durationSeconds) {
+        final StringBuilder report = new StringBuilder();
+        report.append(String.format("%-16s %8s %10s %10s %10s %10s %8s%n", "command", "requests", "req/s",
+                "p50 ms", "p99 ms", "max ms", "errors"));
+
+        final CommandResults total = new CommandResults();
+        for (final Map.Entry<String, CommandResults> entry : new TreeMap<>(this.resultsByCommand).entrySet()) {
+            this.formatLine(report, entry.getKey(), entry.getValue(), durationSeconds);
+            total.addAll(entry.getValue());
+        }
+        this.formatLine(report, "total", total, durationSeconds);
+        return report.toString();
+    }
+
+    private void formatLine(final StringBuilder report, final String command, final CommandResults results,
+            final double durationSeconds) {
+        final long[] latencies = results.sortedLatencies();
+        final int errors = results.errors();
+        report.append(String.format("%-16s %8d %10.2f %10.1f %10.1f %10.1f %7.2f%%%n", command, latencies.length,
+                latencies.length / durationSeconds, LoadTestReport.percentileMilliseconds(latencies, 0.5),
+                LoadTestReport.percentileMilliseconds(latencies, 0.99),
+                LoadTestReport.percentileMilliseconds(latencies, 1),
+                latencies.length == 0 ? 0 : 100.0 * errors / latencies.length));
+    }
+
+    // Nearest-rank percentile
+    static double percentileMilliseconds(final long[] sortedLatencies, final double percentile) {
+        if (sortedLatencies.length == 0) {
+            return 0;
+        }
+        final int rank = (int) Math.ceil(percentile * sortedLatencies.length);
+        return sortedLatencies[Math.max(rank, 1) - 1] / 1_000_000.0;
+    }
+
+    private static class CommandResults {
+        private final List<Long> latencies = new ArrayList<>();
+        private int errors;
+
+        synchronized void record(final long latencyNanoseconds, final boolean error) {
+            this.latencies.add(latencyNanoseconds);
+            if (error) {
+                ++this.errors;
+            }
+        }
+
+        synchronized void addAll(final CommandResults results) {
+            synchronized (results) {
+                this.latencies.addAll(results.latencies);
+                this.errors += results.errors;
+            }
+        }
+
+        synchronized long[] sortedLatencies() {
+            final long[] sorted = this.latencies.stream().mapToLong(Long::longValue).toArray();
+            Arrays.sort(sorted);
+            return sorted;
+        }
+
+        synchronized int errors() {
+            return this.errors;
+        }
+    }
+}
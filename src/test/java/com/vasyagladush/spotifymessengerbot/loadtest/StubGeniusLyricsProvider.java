@@ -0,0 +1,67 @@
+package com.vasyagladush.spotifymessengerbot.loadtest;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.URLEncoder;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.Optional;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.vasyagladush.spotifymessengerbot.lyricsproviders.LyricsProvider;
+import com.vasyagladush.spotifymessengerbot.lyricsproviders.SongLyrics;
+
+/**
+ * Takes the place of GeniusService in load tests, which can't be pointed at
+ * another host. Makes the same two requests per song, a search and a fetch of
+ * the lyrics page of the best hit, against a StubGeniusServer.
+ */
+class StubGeniusLyricsProvider implements LyricsProvider {
+    private static final ObjectMapper objectMapper = new ObjectMapper();
+
+    private final HttpClient httpClient = HttpClient.newBuilder().connectTimeout(Duration.ofSeconds(3)).build();
+    private final String url;
+
+    StubGeniusLyricsProvider(String url) {
+        this.url = url;
+    }
+
+    @Override
+    public String getName() {
+        return "genius-stub";
+    }
+
+    @Override
+    public Optional<SongLyrics> getSongLyrics(final String trackId, final String songName,
+            final String artistNames) throws IOException {
+        final JsonNode hits = objectMapper.readTree(this.get(this.url + "search?q="
+                + URLEncoder.encode(songName + " " + artistNames, StandardCharsets.UTF_8))).path("response")
+                .path("hits");
+        if (hits.isEmpty()) {
+            return Optional.empty();
+        }
+
+        final String pageUrl = hits.get(0).path("result").path("url").asText();
+        return Optional.of(new SongLyrics(this.get(pageUrl), pageUrl));
+    }
+
+    private String get(final String url) throws IOException {
+        final HttpRequest request = HttpRequest.newBuilder(URI.create(url)).timeout(Duration.ofSeconds(5)).GET()
+                .build();
+        final HttpResponse<String> response;
+        try {
+            response = this.httpClient.send(request, HttpResponse.BodyHandlers.ofString());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted", e);
+        }
+        if (response.statusCode() != 200) {
+            throw new IOException("Genius stub responded with status " + response.statusCode());
+        }
+        return response.body();
+    }
+}
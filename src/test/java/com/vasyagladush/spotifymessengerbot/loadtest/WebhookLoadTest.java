@@ -0,0 +1,287 @@
+package com.vasyagladush.spotifymessengerbot.loadtest;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.actuate.observability.AutoConfigureObservability;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.context.TestConfiguration;
+import org.springframework.boot.test.web.server.LocalServerPort;
+import org.springframework.context.annotation.Bean;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.context.DynamicPropertyRegistry;
+import org.springframework.test.context.DynamicPropertySource;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.vasyagladush.spotifymessengerbot.messengers.telegram.TelegramSendScheduler;
+import com.vasyagladush.spotifymessengerbot.messengers.telegram.TelegramUpdateDispatcher;
+import com.vasyagladush.spotifymessengerbot.models.MessengerPlatform;
+import com.vasyagladush.spotifymessengerbot.models.MusicProviderPlatform;
+import com.vasyagladush.spotifymessengerbot.models.User;
+import com.vasyagladush.spotifymessengerbot.services.UserService;
+import com.vasyagladush.spotifymessengerbot.stubs.StubBehavior;
+import com.vasyagladush.spotifymessengerbot.stubs.StubGeniusServer;
+import com.vasyagladush.spotifymessengerbot.stubs.StubSpotifyServer;
+import com.vasyagladush.spotifymessengerbot.stubs.StubTelegramServer;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.zonky.test.db.postgres.embedded.EmbeddedPostgres;
+
+/**
+ * Sends webhook updates to the running application as a number of users
+ * would, with Telegram, Spotify and Genius replaced by local stubs and the
+ * database by an embedded Postgres. Each user sends a command, waits until the
+ * update is processed and its messages are sent, and thinks for a while before
+ * the next one. The webhook mostly responds before that, so the test waits for
+ * a marker queued after the update in the chat's dispatcher queue and then for
+ * the messages still queued to the chat, which makes the measured latency the
+ * one the user sees. The metrics can be scraped from
+ * /actuator/prometheus while it runs, on a random management port that is
+ * logged at startup.
+ *
+ * Run with: ./mvnw test -Dtest=WebhookLoadTest -Dloadtest=true
+ */
+@EnabledIfSystemProperty(named = "loadtest", matches = "true")
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT)
+@ActiveProfiles("loadtest")
+// Metrics exporters are off in tests otherwise
+@AutoConfigureObservability(tracing = false)
+class WebhookLoadTest {
+    private static final Logger logger = LogManager.getLogger(WebhookLoadTest.class);
+    private static final ObjectMapper objectMapper = new ObjectMapper();
+
+    private static final String BOT_TOKEN = "123456:loadtest";
+    private static final String WEBHOOK_SECRET_TOKEN = "loadtest-secret";
+    private static final long FIRST_CHAT_ID = 1_000_000;
+    // Texts of the replies to failed requests, other replies such as "No lyrics
+    // found for this song" are expected outcomes
+    private static final List<String> ERROR_TEXTS = List.of("Unprocessable input", "Error", "error",
+            "Spotify is busy", "Spotify refused", "takes too long");
+
+    private static final int USERS = Integer.getInteger("loadtest.users", 50);
+    private static final int WARMUP_SECONDS = Integer.getInteger("loadtest.warmupSeconds", 10);
+    private static final int DURATION_SECONDS = Integer.getInteger("loadtest.durationSeconds", 60);
+    private static final long THINK_TIME_MILLISECONDS = Long.getLong("loadtest.thinkTimeMs", 2000);
+    private static final int TRACKS = Integer.getInteger("loadtest.tracks", 200);
+    private static final Path REPORT_FILE = Path.of(System.getProperty("loadtest.reportFile",
+            "target/loadtest-report.txt"));
+    private static final StubBehavior TELEGRAM_BEHAVIOR = StubBehavior.fromSystemProperties("loadtest.telegram", 50,
+            0);
+    private static final StubBehavior SPOTIFY_BEHAVIOR = StubBehavior.fromSystemProperties("loadtest.spotify", 100,
+            0.01);
+    private static final StubBehavior GENIUS_BEHAVIOR = StubBehavior.fromSystemProperties("loadtest.genius", 300,
+            0.01);
+
+    // Command name as in the handlers, text sent and weight in the mix
+    private static final List<Command> COMMANDS = List.of(new Command("lyrics", "Lyrics", 60),
+            new Command("clear", "Clear", 15), new Command("settings", "Settings", 8),
+            new Command("leave_settings", "Leave Settings", 7), new Command("autoclear", "Autoclear", 5),
+            new Command("start", "/start", 5));
+
+    private static EmbeddedPostgres postgres;
+    private static StubTelegramServer telegramServer;
+    private static StubSpotifyServer spotifyServer;
+    private static StubGeniusServer geniusServer;
+
+    @LocalServerPort
+    private int port;
+
+    @Autowired
+    private UserService userService;
+
+    @Autowired
+    private TelegramUpdateDispatcher telegramUpdateDispatcher;
+
+    @Autowired
+    private TelegramSendScheduler telegramSendScheduler;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    private final HttpClient httpClient = HttpClient.newBuilder().connectTimeout(Duration.ofSeconds(5)).build();
+    private final AtomicInteger nextUpdateId = new AtomicInteger(1);
+    private final AtomicInteger nextMessageId = new AtomicInteger(1);
+
+    @TestConfiguration
+    static class StubLyricsProviderConfiguration {
+        @Bean
+        StubGeniusLyricsProvider stubGeniusLyricsProvider() {
+            return new StubGeniusLyricsProvider(geniusServer.getUrl());
+        }
+    }
+
+    @BeforeAll
+    static void startStubs() throws IOException {
+        postgres = EmbeddedPostgres.builder().start();
+        telegramServer = new StubTelegramServer(BOT_TOKEN);
+        telegramServer.setBehavior(TELEGRAM_BEHAVIOR);
+        spotifyServer = new StubSpotifyServer(TRACKS);
+        spotifyServer.setBehavior(SPOTIFY_BEHAVIOR);
+        geniusServer = new StubGeniusServer();
+        geniusServer.setBehavior(GENIUS_BEHAVIOR);
+    }
+
+    @AfterAll
+    static void stopStubs() throws IOException {
+        geniusServer.close();
+        spotifyServer.close();
+        telegramServer.close();
+        postgres.close();
+    }
+
+    @DynamicPropertySource
+    static void stubProperties(final DynamicPropertyRegistry registry) {
+        registry.add("spring.datasource.url", () -> postgres.getJdbcUrl("postgres", "postgres"));
+        registry.add("spring.datasource.username", () -> "postgres");
+        registry.add("spring.datasource.password", () -> "postgres");
+        registry.add("TELEGRAM_API_URL", telegramServer::getApiUrl);
+        registry.add("TELEGRAM_BOT_TOKEN", () -> BOT_TOKEN);
+        registry.add("TELEGRAM_WEBHOOK_SECRET_TOKEN", () -> WEBHOOK_SECRET_TOKEN);
+        registry.add("SPOTIFY_API_URL", spotifyServer::getApiUrl);
+        registry.add("SPOTIFY_TOKEN_URL", spotifyServer::getTokenUrl);
+        registry.add("SPOTIFY_OAUTH_URL", spotifyServer::getOAuthUrl);
+    }
+
+    @Test
+    void webhookUnderLoad() throws Exception {
+        // Signed in to Spotify, so that lyrics requests reach the stubs
+        for (int i = 0; i < USERS; ++i) {
+            final User user = this.userService.createOrUpdate(MessengerPlatform.TELEGRAM,
+                    String.valueOf(FIRST_CHAT_ID + i), MusicProviderPlatform.SPOTIFY);
+            this.userService.updateWithMusicProviderAccessTokens(user, "access-" + i, "refresh-" + i,
+                    new Date(System.currentTimeMillis() + 24 * 60 * 60 * 1000));
+        }
+
+        logger.info("Load test: " + USERS + " users, " + WARMUP_SECONDS + " s warm-up, " + DURATION_SECONDS
+                + " s measured, " + THINK_TIME_MILLISECONDS + " ms think time");
+        final LoadTestReport report = new LoadTestReport();
+        final long startedAt = System.nanoTime();
+        final long measuredFrom = startedAt + WARMUP_SECONDS * 1_000_000_000L;
+        final long measuredUntil = measuredFrom + DURATION_SECONDS * 1_000_000_000L;
+
+        try (ExecutorService users = Executors.newVirtualThreadPerTaskExecutor()) {
+            for (int i = 0; i < USERS; ++i) {
+                final long chatId = FIRST_CHAT_ID + i;
+                users.submit(() -> {
+                    this.runUser(chatId, report, measuredFrom, measuredUntil);
+                    return null;
+                });
+            }
+        }
+
+        final String formattedReport = "Telegram: " + TELEGRAM_BEHAVIOR + ", Spotify: " + SPOTIFY_BEHAVIOR
+                + ", Genius: " + GENIUS_BEHAVIOR + "\n"
+                + USERS + " users, " + THINK_TIME_MILLISECONDS + " ms think time, " + DURATION_SECONDS + " s\n"
+                + report.format(DURATION_SECONDS);
+        logger.info("Load test report:\n" + formattedReport);
+        Files.createDirectories(REPORT_FILE.toAbsolutePath().getParent());
+        Files.writeString(REPORT_FILE, formattedReport);
+
+        this.awaitMessagesToClearWritten();
+    }
+
+    // Messages sent after their update was processed are tracked through the
+    // write-behind buffer, which must be written before Postgres is stopped
+    private void awaitMessagesToClearWritten() throws InterruptedException {
+        final long deadline = System.currentTimeMillis() + 30_000;
+        while (this.meterRegistry.get("users.write.behind.pending").gauge().value() > 0
+                && System.currentTimeMillis() < deadline) {
+            Thread.sleep(100);
+        }
+    }
+
+    private void runUser(final long chatId, final LoadTestReport report, final long measuredFrom,
+            final long measuredUntil) throws InterruptedException {
+        final ThreadLocalRandom random = ThreadLocalRandom.current();
+        // Spread the first requests over the think time
+        Thread.sleep(random.nextLong(THINK_TIME_MILLISECONDS + 1));
+
+        while (System.nanoTime() < measuredUntil) {
+            final Command command = WebhookLoadTest.pickCommand(random);
+            final int sentTextsBefore = telegramServer.getSentTexts(chatId).size();
+
+            final long requestStartedAt = System.nanoTime();
+            boolean error;
+            try {
+                error = this.postUpdate(chatId, command.text()) != 200 || !this.awaitProcessed(chatId);
+            } catch (IOException e) {
+                error = true;
+            }
+            final long latency = System.nanoTime() - requestStartedAt;
+
+            if (!error) {
+                final List<String> sentTexts = telegramServer.getSentTexts(chatId);
+                error = sentTexts.subList(sentTextsBefore, sentTexts.size()).stream()
+                        .anyMatch(text -> ERROR_TEXTS.stream().anyMatch(text::contains));
+            }
+            if (requestStartedAt >= measuredFrom && requestStartedAt < measuredUntil) {
+                report.record(command.name(), latency, error);
+            }
+
+            Thread.sleep(random.nextLong(THINK_TIME_MILLISECONDS / 2, THINK_TIME_MILLISECONDS * 3 / 2 + 1));
+        }
+    }
+
+    private int postUpdate(final long chatId, final String text) throws IOException, InterruptedException {
+        final ObjectNode update = objectMapper.createObjectNode();
+        update.put("update_id", this.nextUpdateId.getAndIncrement());
+        final ObjectNode message = update.putObject("message");
+        message.put("message_id", this.nextMessageId.getAndIncrement());
+        message.put("date", System.currentTimeMillis() / 1000);
+        message.put("text", text);
+        message.putObject("chat").put("id", chatId).put("type", "private");
+        message.putObject("from").put("id", chatId).put("is_bot", false).put("first_name", "User " + chatId);
+
+        final HttpRequest request = HttpRequest.newBuilder(URI.create("http://localhost:" + this.port
+                + "/webhook/telegram/")).header("Content-Type", "application/json")
+                .header("X-Telegram-Bot-Api-Secret-Token", WEBHOOK_SECRET_TOKEN)
+                .timeout(Duration.ofSeconds(60))
+                .POST(HttpRequest.BodyPublishers.ofByteArray(objectMapper.writeValueAsBytes(update))).build();
+        return this.httpClient.send(request, HttpResponse.BodyHandlers.discarding()).statusCode();
+    }
+
+    // Updates of a chat are processed in order, so the update posted last is done
+    // once a marker queued after it runs; its messages may still be queued then
+    private boolean awaitProcessed(final long chatId) throws InterruptedException {
+        final CountDownLatch processed = new CountDownLatch(1);
+        return this.telegramUpdateDispatcher.submit(String.valueOf(chatId), processed::countDown)
+                && processed.await(60, TimeUnit.SECONDS)
+                && this.telegramSendScheduler.awaitSent(String.valueOf(chatId));
+    }
+
+    private static Command pickCommand(final ThreadLocalRandom random) {
+        int remaining = random.nextInt(COMMANDS.stream().mapToInt(Command::weight).sum());
+        for (final Command command : COMMANDS) {
+            remaining -= command.weight();
+            if (remaining < 0) {
+                return command;
+            }
+        }
+        return COMMANDS.get(COMMANDS.size() - 1);
+    }
+
+    private record Command(String name, String text, int weight) {
+    }
+}
@@ -0,0 +1,105 @@
+package com.vasyagladush.spotifymessengerbot.lyricsproviders;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+class RacingLyricsProviderTest {
+    private static final long TIMEOUT_MS = 200;
+
+    private final ExecutorService executor = Executors.newCachedThreadPool();
+
+    @AfterEach
+    void shutDownExecutor() {
+        this.executor.shutdownNow();
+    }
+
+    @Test
+    void returnsTheLyricsFoundEvenIfAnotherProviderFailed() throws IOException {
+        final Optional<SongLyrics> lyrics = this.race(RacingLyricsProviderTest.failing("a"),
+                RacingLyricsProviderTest.finding("b")).getSongLyrics(null, "Song", "Artist");
+
+        assertEquals("lyrics from b", lyrics.orElseThrow().getLyrics());
+    }
+
+    @Test
+    void isEmptyOnlyIfEveryProviderMissed() throws IOException {
+        assertTrue(this.race(RacingLyricsProviderTest.missing("a"), RacingLyricsProviderTest.missing("b"))
+                .getSongLyrics(null, "Song", "Artist").isEmpty());
+    }
+
+    @Test
+    void failsIfAProviderFailedAndTheRestMissed() {
+        assertThrows(IOException.class,
+                () -> this.race(RacingLyricsProviderTest.failing("a"), RacingLyricsProviderTest.missing("b"))
+                        .getSongLyrics(null, "Song", "Artist"));
+    }
+
+    @Test
+    void failsIfAProviderTimedOutAndTheRestMissed() {
+        assertThrows(IOException.class,
+                () -> this.race(RacingLyricsProviderTest.hanging("a"), RacingLyricsProviderTest.missing("b"))
+                        .getSongLyrics(null, "Song", "Artist"));
+    }
+
+    private RacingLyricsProvider race(final LyricsProvider... providers) {
+        return new RacingLyricsProvider(List.of(providers), this.executor, TIMEOUT_MS, 3, 60000,
+                new SimpleMeterRegistry());
+    }
+
+    private static LyricsProvider finding(final String name) {
+        return RacingLyricsProviderTest.provider(name,
+                () -> Optional.of(new SongLyrics("lyrics from " + name, "https://" + name)));
+    }
+
+    private static LyricsProvider missing(final String name) {
+        return RacingLyricsProviderTest.provider(name, Optional::empty);
+    }
+
+    private static LyricsProvider failing(final String name) {
+        return RacingLyricsProviderTest.provider(name, () -> {
+            throw new IOException(name + " is down");
+        });
+    }
+
+    private static LyricsProvider hanging(final String name) {
+        return RacingLyricsProviderTest.provider(name, () -> {
+            try {
+                Thread.sleep(10 * TIMEOUT_MS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return Optional.empty();
+        });
+    }
+
+    private static LyricsProvider provider(final String name, final Lookup lookup) {
+        return new LyricsProvider() {
+            @Override
+            public String getName() {
+                return name;
+            }
+
+            @Override
+            public Optional<SongLyrics> getSongLyrics(final String trackId, final String songName,
+                    final String artistNames) throws IOException {
+                return lookup.get();
+            }
+        };
+    }
+
+    private interface Lookup {
+        Optional<SongLyrics> get() throws IOException;
+    }
+}
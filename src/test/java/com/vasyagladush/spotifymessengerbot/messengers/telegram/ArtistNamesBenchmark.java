@@ -0,0 +1,48 @@
+package com.vasyagladush.spotifymessengerbot.messengers.telegram;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.vasyagladush.spotifymessengerbot.musicproviders.spotify.types.SpotifyGetCurrentlyPlayingTrackResponse.Artist;
+
+/**
+ * Building the artists line of the song info message with
+ * {@link TelegramBot#joinArtistNames}, by the number of artists.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ArtistNamesBenchmark {
+    @Param({ "1", "3", "10" })
+    public int artistCount;
+
+    private Artist[] artists;
+
+    @Setup
+    public void setUp() {
+        this.artists = new Artist[this.artistCount];
+        for (int i = 0; i < this.artistCount; ++i) {
+            this.artists[i] = new Artist();
+            this.artists[i].setName("Artist Name " + i);
+        }
+    }
+
+    @Benchmark
+    public String joinArtistNames() {
+        return TelegramBot.joinArtistNames(this.artists);
+    }
+}
@@ -0,0 +1,39 @@
+package com.vasyagladush.spotifymessengerbot.messengers.telegram;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.telegram.telegrambots.meta.api.objects.replykeyboard.ReplyKeyboardMarkup;
+
+/**
+ * Construction of the reply keyboards. The settings keyboard is built for
+ * every settings message, the default one once.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ReplyKeyboardBenchmark {
+    private boolean autoclear;
+
+    @Benchmark
+    public ReplyKeyboardMarkup defaultKeyboard() {
+        return TelegramBot.constructDefaultReplyKeyboardMarkup();
+    }
+
+    @Benchmark
+    public ReplyKeyboardMarkup settingsKeyboard() {
+        this.autoclear = !this.autoclear;
+        return TelegramBot.constructSettingsReplyKeyboardMarkup(this.autoclear);
+    }
+}
@@ -0,0 +1,94 @@
+package com.vasyagladush.spotifymessengerbot.messengers.telegram;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+class TelegramLyricsFormatterTest {
+    private static final int MAX_MESSAGE_LENGTH = TelegramLyricsFormatter.MAX_MESSAGE_LENGTH;
+
+    private final TelegramLyricsFormatter formatter = new TelegramLyricsFormatter(100, 60000,
+            new SimpleMeterRegistry());
+
+    @Test
+    void escapesHtml() {
+        assertEquals(List.of("Rock &amp; roll &lt;3\n\n&gt; quoted"), this.format("Rock & roll <3\n\n> quoted"));
+    }
+
+    @Test
+    void skipsBlankLyrics() {
+        assertEquals(List.of(), this.format(" \n\n "));
+    }
+
+    @Test
+    void keepsVersesTogether() {
+        final String firstVerse = "a".repeat(3000);
+        final String secondVerse = "b".repeat(3000);
+
+        assertEquals(List.of(firstVerse, secondVerse), this.format(firstVerse + "\n\n" + secondVerse));
+    }
+
+    @Test
+    void fillsAMessageUpToExactlyTheLimit() {
+        final String firstVerse = "a".repeat(2000);
+        final String secondVerse = "b".repeat(MAX_MESSAGE_LENGTH - firstVerse.length() - 2);
+
+        final List<String> chunks = this.format(firstVerse + "\n\n" + secondVerse + "\n\nc");
+
+        assertEquals(List.of(firstVerse + "\n\n" + secondVerse, "c"), chunks);
+        assertEquals(MAX_MESSAGE_LENGTH, chunks.get(0).length());
+    }
+
+    @Test
+    void splitsAVerseTooLongForAMessageBetweenItsLines() {
+        final String line = "a".repeat(1500);
+        final String verse = String.join("\n", line, line, line, line);
+
+        assertEquals(List.of(line + "\n" + line, line + "\n" + line), this.format(verse));
+    }
+
+    @Test
+    void cutsALineTooLongForAMessageAtTheLimit() {
+        final List<String> chunks = this.format("a".repeat(MAX_MESSAGE_LENGTH + 1));
+
+        assertEquals(List.of("a".repeat(MAX_MESSAGE_LENGTH), "a"), chunks);
+    }
+
+    @Test
+    void neverCutsAnEscapedCharacter() {
+        final String line = "a".repeat(MAX_MESSAGE_LENGTH - 2) + "&b";
+
+        assertEquals(List.of("a".repeat(MAX_MESSAGE_LENGTH - 2), "&amp;b"), this.format(line));
+    }
+
+    @Test
+    void neverCutsASurrogatePair() {
+        final String emoji = "🎵";
+        final List<String> chunks = this.format("a".repeat(MAX_MESSAGE_LENGTH - 1) + emoji);
+
+        assertEquals(List.of("a".repeat(MAX_MESSAGE_LENGTH - 1), emoji), chunks);
+        assertFalse(Character.isHighSurrogate(chunks.get(0).charAt(chunks.get(0).length() - 1)));
+    }
+
+    @Test
+    void returnsTheSameChunksFromTheCache() {
+        final String lyrics = "a".repeat(5000);
+        final List<String> chunks = this.format(lyrics);
+
+        assertEquals(chunks, this.format(lyrics));
+        assertTrue(chunks.stream().allMatch(chunk -> chunk.length() <= MAX_MESSAGE_LENGTH));
+    }
+
+    private List<String> format(final String lyrics) {
+        final List<String> chunks = new ArrayList<>();
+        assertEquals(this.formatter.format(lyrics, chunks::add), chunks.size());
+        return chunks;
+    }
+}
@@ -0,0 +1,221 @@
+package com.vasyagladush.spotifymessengerbot.messengers.telegram;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.telegram.telegrambots.bots.DefaultAbsSender;
+import org.telegram.telegrambots.bots.DefaultBotOptions;
+import org.telegram.telegrambots.meta.api.methods.BotApiMethod;
+import org.telegram.telegrambots.meta.api.methods.send.SendMessage;
+import org.telegram.telegrambots.meta.api.objects.ApiResponse;
+import org.telegram.telegrambots.meta.api.objects.Message;
+import org.telegram.telegrambots.meta.exceptions.TelegramApiException;
+import org.telegram.telegrambots.meta.exceptions.TelegramApiRequestException;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+/**
+ * Sends through a fake sender that records the texts and can hold a send back
+ * until released, so messages queue up behind it and are merged.
+ */
+class TelegramSendSchedulerTest {
+    private static final String CHAT_ID = "42";
+    private static final int MAX_MESSAGE_LENGTH = 4096;
+
+    private final ExecutorService ioExecutor = Executors.newCachedThreadPool();
+    private final TelegramSendScheduler scheduler = new TelegramSendScheduler(this.ioExecutor, 1000, 0, 3, 5000,
+            new SimpleMeterRegistry());
+    private final FakeSender sender = new FakeSender();
+
+    @AfterEach
+    void shutDown() throws InterruptedException {
+        this.sender.release();
+        this.scheduler.shutdown();
+        this.ioExecutor.shutdownNow();
+    }
+
+    @Test
+    void mergesQueuedMessagesUpToTheLengthLimit() throws Exception {
+        this.holdFirstSend();
+        final String first = "a".repeat(2000);
+        // Exactly fills a message together with the first one and the separator
+        final String second = "b".repeat(MAX_MESSAGE_LENGTH - first.length() - 2);
+        final CompletableFuture<Message> lastSend = this.sendAll(List.of(first, second, "c"));
+
+        this.sender.release();
+        lastSend.get(5, TimeUnit.SECONDS);
+
+        assertEquals(List.of("held", first + "\n\n" + second, "c"), this.sender.sentTexts);
+        assertEquals(MAX_MESSAGE_LENGTH, this.sender.sentTexts.get(1).length());
+    }
+
+    @Test
+    void runsTheCallbackOncePerSentMessage() throws Exception {
+        this.holdFirstSend();
+        final List<String> callbacks = new CopyOnWriteArrayList<>();
+        final List<CompletableFuture<Message>> sends = new ArrayList<>();
+        for (final String text : List.of("a".repeat(3000), "b", "c", "d".repeat(3000))) {
+            sends.add(this.scheduler.send(this.sender, TelegramSendSchedulerTest.sendMessage(text),
+                    message -> callbacks.add(text.substring(0, 1) + ":" + message.getMessageId())));
+        }
+
+        this.sender.release();
+        CompletableFuture.allOf(sends.toArray(new CompletableFuture<?>[0])).get(5, TimeUnit.SECONDS);
+
+        // "a", "b" and "c" went out as one message, tracked by the first callback
+        assertEquals(3, this.sender.sentTexts.size());
+        assertEquals(List.of("a:2", "d:3"), callbacks);
+        assertSame(sends.get(0).get(), sends.get(2).get());
+    }
+
+    @Test
+    void keepsTheOrderWhenASendIsRetriedAfterA429() throws Exception {
+        this.holdFirstSend();
+        // The first merged message, after the held one, is rejected once
+        this.sender.failWith429(Set.of(2));
+        final List<String> texts = new ArrayList<>();
+        for (int i = 0; i < 20; ++i) {
+            // Four fit in a message
+            texts.add(i + " " + "x".repeat(1000));
+        }
+        final CompletableFuture<Message> lastSend = this.sendAll(texts);
+
+        this.sender.release();
+        lastSend.get(5, TimeUnit.SECONDS);
+
+        assertEquals(1, this.sender.rejectedCalls.get());
+        final List<String> expectedTexts = new ArrayList<>(List.of("held"));
+        for (int i = 0; i < texts.size(); i += 4) {
+            expectedTexts.add(String.join("\n\n", texts.subList(i, i + 4)));
+        }
+        assertEquals(expectedTexts, this.sender.sentTexts);
+    }
+
+    @Test
+    void shutdownWaitsForQueuedMessages() throws Exception {
+        this.holdFirstSend();
+        final CompletableFuture<Message> lastSend = this.sendAll(List.of("a", "b"));
+
+        final Thread releaser = new Thread(() -> {
+            try {
+                Thread.sleep(200);
+            } catch (InterruptedException e) {
+                return;
+            }
+            this.sender.release();
+        });
+        releaser.start();
+        this.scheduler.shutdown();
+
+        assertTrue(lastSend.isDone());
+        assertEquals(List.of("held", "a\n\nb"), this.sender.sentTexts);
+        releaser.join();
+    }
+
+    // Queues a message that is held back until the sender is released
+    private void holdFirstSend() throws InterruptedException {
+        this.sender.hold();
+        this.scheduler.send(this.sender, TelegramSendSchedulerTest.sendMessage("held"), message -> {
+        });
+        assertTrue(this.sender.held.await(5, TimeUnit.SECONDS));
+    }
+
+    private CompletableFuture<Message> sendAll(final List<String> texts) {
+        CompletableFuture<Message> lastSend = null;
+        for (final String text : texts) {
+            lastSend = this.scheduler.send(this.sender, TelegramSendSchedulerTest.sendMessage(text), message -> {
+            });
+        }
+        return lastSend;
+    }
+
+    private static SendMessage sendMessage(final String text) {
+        return SendMessage.builder().chatId(CHAT_ID).text(text).build();
+    }
+
+    private static class FakeSender extends DefaultAbsSender {
+        private static final ObjectMapper objectMapper = new ObjectMapper();
+
+        private final List<String> sentTexts = new CopyOnWriteArrayList<>();
+        private final AtomicInteger calls = new AtomicInteger();
+        private final AtomicInteger rejectedCalls = new AtomicInteger();
+        private final Set<Integer> rejectedCallNumbers = ConcurrentHashMap.newKeySet();
+        private final CountDownLatch held = new CountDownLatch(1);
+        private volatile CountDownLatch release = new CountDownLatch(0);
+
+        FakeSender() {
+            super(new DefaultBotOptions(), "123456:test-token");
+        }
+
+        // The next send waits for release()
+        void hold() {
+            this.release = new CountDownLatch(1);
+        }
+
+        void release() {
+            this.release.countDown();
+        }
+
+        // Calls with these numbers, counting from 1, are rejected with 429
+        void failWith429(final Set<Integer> callNumbers) {
+            this.rejectedCallNumbers.addAll(callNumbers);
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public <T extends Serializable, Method extends BotApiMethod<T>> T execute(final Method method)
+                throws TelegramApiException {
+            final int call = this.calls.incrementAndGet();
+            this.held.countDown();
+            try {
+                this.release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new TelegramApiException(e);
+            }
+            if (this.rejectedCallNumbers.remove(call)) {
+                this.rejectedCalls.incrementAndGet();
+                throw FakeSender.tooManyRequests();
+            }
+
+            final SendMessage sendMessage = (SendMessage) method;
+            this.sentTexts.add(sendMessage.getText());
+            final Message message = new Message();
+            message.setMessageId(this.sentTexts.size());
+            message.setText(sendMessage.getText());
+            return (T) message;
+        }
+
+        private static TelegramApiRequestException tooManyRequests() throws TelegramApiException {
+            try {
+                final ApiResponse<Message> response = objectMapper.readValue(
+                        "{\"ok\":false,\"error_code\":429,\"description\":\"Too Many Requests\","
+                                + "\"parameters\":{\"retry_after\":0}}",
+                        new TypeReference<ApiResponse<Message>>() {
+                        });
+                return new TelegramApiRequestException("Error sending message", response);
+            } catch (Exception e) {
+                throw new TelegramApiException(e);
+            }
+        }
+    }
+}
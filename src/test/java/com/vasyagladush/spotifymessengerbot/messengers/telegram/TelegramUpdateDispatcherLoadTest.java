@@ -0,0 +1,115 @@
+package com.vasyagladush.spotifymessengerbot.messengers.telegram;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+
+import com.vasyagladush.spotifymessengerbot.configurations.ExecutionConfiguration;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+/**
+ * Compares how many concurrent users the update dispatcher serves with the
+ * platform-thread and virtual-thread executors, when every update spends its
+ * time blocked on I/O like a /lyrics request does.
+ *
+ * Run with: ./mvnw test -Dtest=TelegramUpdateDispatcherLoadTest -Dloadtest=true
+ */
+@EnabledIfSystemProperty(named = "loadtest", matches = "true")
+class TelegramUpdateDispatcherLoadTest {
+    private static final Logger logger = LogManager.getLogger(TelegramUpdateDispatcherLoadTest.class);
+
+    private static final int USERS = Integer.getInteger("loadtest.users", 500);
+    private static final int PLATFORM_WORKERS = Integer.getInteger("loadtest.platformWorkers", 16);
+
+    // Spotify currently-playing, song info send, Genius search, Genius fetch,
+    // lyrics send
+    private static final long[] SIMULATED_IO_MILLISECONDS = { 80, 40, 120, 150, 40 };
+
+    @Test
+    void virtualThreadsServeMoreConcurrentUsersThanPlatformThreads() throws InterruptedException {
+        final Result platformResult = this.run("platform threads",
+                ExecutionConfiguration.platformThreadExecutor("load-platform-", PLATFORM_WORKERS));
+        final Result virtualResult = this.run("virtual threads",
+                ExecutionConfiguration.virtualThreadExecutor("load-virtual-"));
+
+        logger.info("Load test: " + platformResult);
+        logger.info("Load test: " + virtualResult);
+
+        assertEquals(USERS, platformResult.completed);
+        assertEquals(USERS, virtualResult.completed);
+        assertTrue(virtualResult.throughputPerSecond() > platformResult.throughputPerSecond());
+    }
+
+    private Result run(final String mode, final ExecutorService executor) throws InterruptedException {
+        final TelegramUpdateDispatcher dispatcher = new TelegramUpdateDispatcher(executor, USERS, 60 * 1000,
+                new SimpleMeterRegistry());
+        final CountDownLatch done = new CountDownLatch(USERS);
+        final AtomicInteger completed = new AtomicInteger();
+        final long[] latenciesNanoseconds = new long[USERS];
+
+        final long start = System.nanoTime();
+        for (int i = 0; i < USERS; ++i) {
+            final int user = i;
+            final long submittedAt = System.nanoTime();
+            dispatcher.submit(String.valueOf(user), () -> {
+                try {
+                    for (long milliseconds : SIMULATED_IO_MILLISECONDS) {
+                        Thread.sleep(milliseconds);
+                    }
+                    completed.incrementAndGet();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                } finally {
+                    latenciesNanoseconds[user] = System.nanoTime() - submittedAt;
+                    done.countDown();
+                }
+            });
+        }
+        done.await(5, TimeUnit.MINUTES);
+        final long elapsedNanoseconds = System.nanoTime() - start;
+        dispatcher.shutdown();
+
+        Arrays.sort(latenciesNanoseconds);
+        return new Result(mode, completed.get(), elapsedNanoseconds,
+                latenciesNanoseconds[USERS / 2], latenciesNanoseconds[(int) (USERS * 0.99)]);
+    }
+
+    private static class Result {
+        final String mode;
+        final int completed;
+        final long elapsedNanoseconds;
+        final long p50Nanoseconds;
+        final long p99Nanoseconds;
+
+        Result(String mode, int completed, long elapsedNanoseconds, long p50Nanoseconds, long p99Nanoseconds) {
+            this.mode = mode;
+            this.completed = completed;
+            this.elapsedNanoseconds = elapsedNanoseconds;
+            this.p50Nanoseconds = p50Nanoseconds;
+            this.p99Nanoseconds = p99Nanoseconds;
+        }
+
+        double throughputPerSecond() {
+            return this.completed / (this.elapsedNanoseconds / 1e9);
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%-16s users: %d, total: %d ms, throughput: %.1f users/s, p50: %d ms, p99: %d ms",
+                    this.mode, this.completed, TimeUnit.NANOSECONDS.toMillis(this.elapsedNanoseconds),
+                    this.throughputPerSecond(), TimeUnit.NANOSECONDS.toMillis(this.p50Nanoseconds),
+                    TimeUnit.NANOSECONDS.toMillis(this.p99Nanoseconds));
+        }
+    }
+}
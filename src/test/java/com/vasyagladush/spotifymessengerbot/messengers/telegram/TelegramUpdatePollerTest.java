@@ -0,0 +1,149 @@
+package com.vasyagladush.spotifymessengerbot.messengers.telegram;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+import org.junit.jupiter.api.Test;
+import org.telegram.telegrambots.bots.DefaultAbsSender;
+import org.telegram.telegrambots.meta.api.objects.Update;
+
+import com.vasyagladush.spotifymessengerbot.configurations.ExecutionConfiguration;
+import com.vasyagladush.spotifymessengerbot.stubs.StubTelegramServer;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+/**
+ * Runs the poller against {@link StubTelegramServer}, so no Telegram
+ * connection is needed.
+ */
+class TelegramUpdatePollerTest {
+    private static final String TOKEN = "123456:test-token";
+    private static final int CHATS = 5;
+
+    @Test
+    void pollsUpdatesInBatchesAndHandlesEachChatInOrder() throws Exception {
+        final int updates = 250;
+        try (StubTelegramServer server = new StubTelegramServer(TOKEN)) {
+            TelegramUpdatePollerTest.addUpdates(server, updates);
+            final Map<Long, List<String>> handledTexts = this.pollAll(server, updates, 1000, 0);
+
+            assertEquals(1, server.getCalls("deleteWebhook").size());
+            assertEquals(List.of(100, 100, 50), server.getReturnedBatchSizes());
+            // The last offset is confirmed with a short call when the poller stops
+            final List<Integer> limits = server.getRequestedLimits();
+            assertTrue(limits.subList(0, limits.size() - 1).stream().allMatch(limit -> limit == 100));
+            final List<Integer> offsets = server.getRequestedOffsets();
+            assertEquals(updates + 1, offsets.get(offsets.size() - 1));
+            TelegramUpdatePollerTest.assertHandledOnceInOrder(handledTexts, updates);
+        }
+    }
+
+    @Test
+    void fetchesRejectedUpdatesAgainWhenTheDispatcherIsFull() throws Exception {
+        final int updates = 60;
+        try (StubTelegramServer server = new StubTelegramServer(TOKEN)) {
+            TelegramUpdatePollerTest.addUpdates(server, updates);
+            final Map<Long, List<String>> handledTexts = this.pollAll(server, updates, 10, 5);
+
+            assertTrue(server.getReturnedBatchSizes().size() > 1);
+            TelegramUpdatePollerTest.assertHandledOnceInOrder(handledTexts, updates);
+        }
+    }
+
+    @Test
+    void leavesUnhandledUpdatesUnconfirmedWhenStopped() throws Exception {
+        final int updates = 10;
+        try (StubTelegramServer server = new StubTelegramServer(TOKEN)) {
+            TelegramUpdatePollerTest.addUpdates(server, updates);
+            final CountDownLatch othersHandled = new CountDownLatch(updates - 1);
+            final CountDownLatch release = new CountDownLatch(1);
+            // Update "5" is stuck until the poller has stopped
+            final Consumer<Update> updateHandler = update -> {
+                if (update.getMessage().getText().equals("5")) {
+                    try {
+                        release.await();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                } else {
+                    othersHandled.countDown();
+                }
+            };
+
+            final TelegramUpdateDispatcher dispatcher = new TelegramUpdateDispatcher(
+                    ExecutionConfiguration.platformThreadExecutor("test-update-", 4), 100, 5000,
+                    new SimpleMeterRegistry());
+            final TelegramUpdatePoller poller = new TelegramUpdatePoller(TelegramUpdatePollerTest.sender(server),
+                    updateHandler, dispatcher, 100, 1, 50, 200, new SimpleMeterRegistry());
+            poller.start();
+            assertTrue(othersHandled.await(30, TimeUnit.SECONDS));
+            poller.stop();
+            release.countDown();
+            dispatcher.shutdown();
+
+            // Update ids start at 1, the stuck update is fetched again next time
+            final List<Integer> offsets = server.getRequestedOffsets();
+            assertEquals(6, offsets.get(offsets.size() - 1));
+        }
+    }
+
+    private Map<Long, List<String>> pollAll(final StubTelegramServer server, final int updates,
+            final int queueCapacity, final long handlingMilliseconds) throws InterruptedException {
+        final Map<Long, List<String>> handledTexts = new ConcurrentHashMap<>();
+        final CountDownLatch handled = new CountDownLatch(updates);
+        final Consumer<Update> updateHandler = update -> {
+            try {
+                Thread.sleep(handlingMilliseconds);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            // Updates of a chat are never handled at the same time
+            handledTexts.computeIfAbsent(update.getMessage().getChatId(), chatId -> new ArrayList<>())
+                    .add(update.getMessage().getText());
+            handled.countDown();
+        };
+
+        final TelegramUpdateDispatcher dispatcher = new TelegramUpdateDispatcher(
+                ExecutionConfiguration.platformThreadExecutor("test-update-", 4), queueCapacity, 5000,
+                new SimpleMeterRegistry());
+        final TelegramUpdatePoller poller = new TelegramUpdatePoller(TelegramUpdatePollerTest.sender(server),
+                updateHandler, dispatcher, 100, 1, 50, 5000, new SimpleMeterRegistry());
+
+        poller.start();
+        final boolean allHandled = handled.await(30, TimeUnit.SECONDS);
+        poller.stop();
+        dispatcher.shutdown();
+
+        assertTrue(allHandled, "handled " + (updates - handled.getCount()) + " of " + updates + " updates");
+        return handledTexts;
+    }
+
+    private static DefaultAbsSender sender(final StubTelegramServer server) {
+        return new DefaultAbsSender(TelegramBot.constructBotOptions(server.getApiUrl()), server.getToken()) {
+        };
+    }
+
+    private static void addUpdates(final StubTelegramServer server, final int updates) {
+        for (int i = 0; i < updates; ++i) {
+            server.addMessageUpdate(i % CHATS, String.valueOf(i));
+        }
+    }
+
+    private static void assertHandledOnceInOrder(final Map<Long, List<String>> handledTexts, final int updates) {
+        for (long chatId = 0; chatId < CHATS; ++chatId) {
+            final List<String> expectedTexts = new ArrayList<>();
+            for (int i = (int) chatId; i < updates; i += CHATS) {
+                expectedTexts.add(String.valueOf(i));
+            }
+            assertEquals(expectedTexts, handledTexts.get(chatId));
+        }
+    }
+}
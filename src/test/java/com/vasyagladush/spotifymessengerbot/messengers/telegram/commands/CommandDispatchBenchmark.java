@@ -0,0 +1,75 @@
+package com.vasyagladush.spotifymessengerbot.messengers.telegram.commands;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Cost of finding the command of a message: the registry against the chain of
+ * Arrays.stream(...).anyMatch checks it replaced. The messages are the first
+ * and the last exact command of the chain, the prefixed command and an unknown
+ * text, which went through every check.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CommandDispatchBenchmark {
+    private static final String[] AUTH_MESSAGE_INPUTS = { "/start" };
+    private static final String[] LYRICS_MESSAGE_INPUTS = { "Lyrics", "/lyrics", };
+    private static final String[] CLEAR_MESSAGE_INPUTS = { "Clear", "/clear", };
+    private static final String[] OPEN_SETTINGS_MESSAGE_INPUTS = { "Settings" };
+    private static final String[] CLOSE_SETTINGS_INPUTS = { "Leave Settings" };
+    private static final String[] TOGGLE_AUTOCLEAR_INPUTS = { "Autoclear", "/autoclear" };
+
+    @Param({ "/start", "Leave Settings", "Autoclear On", "Some unknown text" })
+    public String messageText;
+
+    private CommandRegistry registry;
+
+    @Setup
+    public void setUp() {
+        this.registry = new CommandRegistry(List.of(new StartCommandHandler(), new LyricsCommandHandler(),
+                new ClearCommandHandler(), new OpenSettingsCommandHandler(), new CloseSettingsCommandHandler(),
+                new ToggleAutoclearCommandHandler(null)));
+    }
+
+    @Benchmark
+    public String registry() {
+        final CommandHandler handler = this.registry.find(this.messageText);
+        return handler == null ? null : handler.getName();
+    }
+
+    // As in TelegramBot before the registry
+    @Benchmark
+    public String ifElseChain() {
+        if (Arrays.stream(AUTH_MESSAGE_INPUTS).anyMatch(this.messageText::equals)) {
+            return "start";
+        } else if (Arrays.stream(LYRICS_MESSAGE_INPUTS).anyMatch(this.messageText::equals)) {
+            return "lyrics";
+        } else if (Arrays.stream(CLEAR_MESSAGE_INPUTS).anyMatch(this.messageText::equals)) {
+            return "clear";
+        } else if (Arrays.stream(OPEN_SETTINGS_MESSAGE_INPUTS).anyMatch(this.messageText::equals)) {
+            return "settings";
+        } else if (Arrays.stream(CLOSE_SETTINGS_INPUTS).anyMatch(this.messageText::equals)) {
+            return "leave_settings";
+        } else if (Arrays.stream(TOGGLE_AUTOCLEAR_INPUTS).anyMatch(this.messageText::startsWith)) {
+            return "autoclear";
+        }
+        return null;
+    }
+}
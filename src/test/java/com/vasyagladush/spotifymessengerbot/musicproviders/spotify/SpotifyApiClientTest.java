@@ -0,0 +1,239 @@
+package com.vasyagladush.spotifymessengerbot.musicproviders.spotify;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.http.HttpHost;
+import org.apache.http.HttpRequest;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.conn.ClientConnectionManager;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.HttpClients;
+import org.apache.http.params.HttpParams;
+import org.apache.http.protocol.HttpContext;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+/**
+ * Runs the client against a local server answering with scripted statuses.
+ */
+class SpotifyApiClientTest {
+    private static final int MAX_RETRIES = 2;
+
+    private final Queue<ScriptedResponse> responses = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger requests = new AtomicInteger();
+    private HttpServer server;
+    private FailingHttpClient httpClient;
+
+    @BeforeEach
+    void startServer() throws IOException {
+        this.server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        this.server.createContext("/", this::handle);
+        this.server.start();
+        this.httpClient = new FailingHttpClient(HttpClients.createDefault());
+    }
+
+    @AfterEach
+    void stopServer() throws IOException {
+        this.httpClient.close();
+        this.server.stop(0);
+    }
+
+    @Test
+    void retriesAfterA429() throws IOException {
+        this.respond(429, "0", null);
+        this.respond(200, null, "ok");
+
+        assertEquals("ok", this.construct(5).execute(this.get(), false));
+        assertEquals(2, this.requests.get());
+    }
+
+    @Test
+    void pausesAllRequestsWhenRetryAfterIsTooLong() throws IOException {
+        final SpotifyApiClient client = this.construct(5);
+        this.respond(429, "60", null);
+
+        assertEquals(429, assertThrows(SpotifyApiException.class, () -> client.execute(this.get(), true))
+                .getStatusCode());
+        // Not sent at all until the minute is over
+        assertEquals(0, assertThrows(SpotifyApiException.class, () -> client.execute(this.get(), true))
+                .getStatusCode());
+        assertEquals(1, this.requests.get());
+    }
+
+    @Test
+    void retriesServerErrorsOfIdempotentRequests() throws IOException {
+        this.respond(503, null, null);
+        this.respond(502, null, null);
+        this.respond(204, null, null);
+
+        assertNull(this.construct(5).execute(this.get(), true));
+        assertEquals(3, this.requests.get());
+    }
+
+    @Test
+    void givesUpAfterMaxRetries() {
+        for (int i = 0; i <= MAX_RETRIES + 1; ++i) {
+            this.respond(500, null, null);
+        }
+
+        assertEquals(500, assertThrows(SpotifyApiException.class, () -> this.construct(5).execute(this.get(), true))
+                .getStatusCode());
+        assertEquals(MAX_RETRIES + 1, this.requests.get());
+    }
+
+    @Test
+    void doesNotRetryServerErrorsOfOtherRequests() {
+        this.respond(503, null, null);
+        this.respond(200, null, "ok");
+
+        assertEquals(503, assertThrows(SpotifyApiException.class, () -> this.construct(5).execute(this.get(), false))
+                .getStatusCode());
+        assertEquals(1, this.requests.get());
+    }
+
+    @Test
+    void doesNotRetryClientErrors() {
+        this.respond(401, null, "expired token");
+
+        final SpotifyApiException e = assertThrows(SpotifyApiException.class,
+                () -> this.construct(5).execute(this.get(), true));
+        assertEquals(401, e.getStatusCode());
+        assertEquals(1, this.requests.get());
+    }
+
+    @Test
+    void rejectsRequestsWhileTheCircuitIsOpen() {
+        final SpotifyApiClient client = this.construct(MAX_RETRIES + 1);
+        for (int i = 0; i <= MAX_RETRIES; ++i) {
+            this.respond(503, null, null);
+        }
+        this.respond(200, null, "ok");
+
+        assertThrows(SpotifyApiException.class, () -> client.execute(this.get(), true));
+        assertEquals(0, assertThrows(SpotifyApiException.class, () -> client.execute(this.get(), true))
+                .getStatusCode());
+        assertEquals(MAX_RETRIES + 1, this.requests.get());
+    }
+
+    @Test
+    void uncheckedExceptionOfTrialCallOpensTheCircuitAgain() throws IOException {
+        // Opens after one failure and lets a trial call through right away
+        final SpotifyApiClient client = new SpotifyApiClient(this.httpClient, 1000, 1000, 2000, 0, 1, 1, 0,
+                new SimpleMeterRegistry());
+        this.respond(503, null, null);
+        assertThrows(SpotifyApiException.class, () -> client.execute(this.get(), true));
+
+        this.httpClient.failNextRequest();
+        assertThrows(IllegalStateException.class, () -> client.execute(this.get(), true));
+
+        // Had the trial call not been reported, the circuit would stay half open
+        this.respond(200, null, "ok");
+        assertEquals("ok", client.execute(this.get(), true));
+    }
+
+    private SpotifyApiClient construct(final int circuitBreakerFailureThreshold) {
+        return new SpotifyApiClient(this.httpClient, 1000, 1000, 2000, MAX_RETRIES, 1,
+                circuitBreakerFailureThreshold, 60000, new SimpleMeterRegistry());
+    }
+
+    private HttpGet get() {
+        return new HttpGet("http://localhost:" + this.server.getAddress().getPort() + "/v1/me");
+    }
+
+    private void respond(final int statusCode, final String retryAfter, final String body) {
+        this.responses.add(new ScriptedResponse(statusCode, retryAfter, body));
+    }
+
+    private void handle(final HttpExchange exchange) throws IOException {
+        try (exchange) {
+            this.requests.incrementAndGet();
+            final ScriptedResponse response = this.responses.poll();
+            if (response == null) {
+                exchange.sendResponseHeaders(404, -1);
+                return;
+            }
+            if (response.retryAfter != null) {
+                exchange.getResponseHeaders().set("Retry-After", response.retryAfter);
+            }
+            if (response.body == null) {
+                exchange.sendResponseHeaders(response.statusCode, -1);
+                return;
+            }
+            final byte[] bytes = response.body.getBytes(StandardCharsets.UTF_8);
+            exchange.sendResponseHeaders(response.statusCode, bytes.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(bytes);
+            }
+        }
+    }
+
+    private static class ScriptedResponse {
+        private final int statusCode;
+        private final String retryAfter;
+        private final String body;
+
+        ScriptedResponse(int statusCode, String retryAfter, String body) {
+            this.statusCode = statusCode;
+            this.retryAfter = retryAfter;
+            this.body = body;
+        }
+    }
+
+    // Throws an unchecked exception instead of sending the next request
+    private static class FailingHttpClient extends CloseableHttpClient {
+        private final CloseableHttpClient delegate;
+        private volatile boolean failNextRequest;
+
+        FailingHttpClient(CloseableHttpClient delegate) {
+            this.delegate = delegate;
+        }
+
+        void failNextRequest() {
+            this.failNextRequest = true;
+        }
+
+        @Override
+        protected CloseableHttpResponse doExecute(final HttpHost target, final HttpRequest request,
+                final HttpContext context) throws IOException {
+            if (this.failNextRequest) {
+                this.failNextRequest = false;
+                throw new IllegalStateException("Connection pool shut down");
+            }
+            return this.delegate.execute(target, request, context);
+        }
+
+        @Override
+        public void close() throws IOException {
+            this.delegate.close();
+        }
+
+        @Override
+        @Deprecated
+        public HttpParams getParams() {
+            return this.delegate.getParams();
+        }
+
+        @Override
+        @Deprecated
+        public ClientConnectionManager getConnectionManager() {
+            return this.delegate.getConnectionManager();
+        }
+    }
+}
@@ -0,0 +1,140 @@
+package com.vasyagladush.spotifymessengerbot.repositories;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.util.Date;
+import java.util.List;
+import java.util.Optional;
+import java.util.UUID;
+
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.SpringBootConfiguration;
+import org.springframework.boot.autoconfigure.domain.EntityScan;
+import org.springframework.boot.test.autoconfigure.jdbc.AutoConfigureTestDatabase;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.jpa.repository.config.EnableJpaRepositories;
+import org.springframework.test.context.DynamicPropertyRegistry;
+import org.springframework.test.context.DynamicPropertySource;
+
+import com.vasyagladush.spotifymessengerbot.models.MessengerPlatform;
+import com.vasyagladush.spotifymessengerbot.models.MusicProviderPlatform;
+import com.vasyagladush.spotifymessengerbot.models.User;
+import com.vasyagladush.spotifymessengerbot.models.UserSummary;
+
+import io.zonky.test.db.postgres.embedded.EmbeddedPostgres;
+
+/**
+ * Runs against an embedded Postgres migrated by Flyway, which refuses to start
+ * as root, so it is left out of the default build.
+ *
+ * Run with: ./mvnw test -Dtest=UserRepositoryTest -Ddbtest=true
+ */
+@EnabledIfSystemProperty(named = "dbtest", matches = "true")
+@DataJpaTest
+@AutoConfigureTestDatabase(replace = AutoConfigureTestDatabase.Replace.NONE)
+class UserRepositoryTest {
+    private static EmbeddedPostgres postgres;
+
+    // Keeps the application class, which wants the Telegram bot, out of the slice
+    @SpringBootConfiguration
+    @EntityScan(basePackageClasses = User.class)
+    @EnableJpaRepositories(basePackageClasses = UserRepository.class)
+    static class Configuration {
+    }
+
+    @Autowired
+    private UserRepository repository;
+
+    @BeforeAll
+    static void startPostgres() throws IOException {
+        postgres = EmbeddedPostgres.builder().start();
+    }
+
+    @AfterAll
+    static void stopPostgres() throws IOException {
+        postgres.close();
+    }
+
+    @DynamicPropertySource
+    static void postgresProperties(final DynamicPropertyRegistry registry) {
+        registry.add("spring.datasource.url", () -> postgres.getJdbcUrl("postgres", "postgres"));
+        registry.add("spring.datasource.username", () -> "postgres");
+        registry.add("spring.datasource.password", () -> "postgres");
+    }
+
+    @Test
+    void summaryIsReadWithoutTheEntity() {
+        final User user = new User();
+        user.setMessengerPlatform(MessengerPlatform.TELEGRAM.name());
+        user.setMessengerUserId("42");
+        user.setMusicProviderPlatform(MusicProviderPlatform.SPOTIFY.name());
+        user.setMusicProviderAccessToken("access");
+        user.setAutoclear(true);
+        this.repository.save(user);
+
+        final Optional<UserSummary> summary = this.repository
+                .findSummaryByMessengerPlatformAndMessengerUserIdAndMusicProviderPlatform(
+                        MessengerPlatform.TELEGRAM.name(), "42", MusicProviderPlatform.SPOTIFY.name());
+
+        assertTrue(summary.isPresent());
+        // Not the managed entity, whose tokens would have been read too
+        assertFalse(summary.get() instanceof User);
+        assertEquals(user.getId(), summary.get().getId());
+        assertEquals("42", summary.get().getMessengerUserId());
+        assertEquals(MusicProviderPlatform.SPOTIFY.name(), summary.get().getMusicProviderPlatform());
+        assertTrue(summary.get().isAutoclear());
+    }
+
+    @Test
+    void summaryOfUnknownUserIsEmpty() {
+        assertFalse(this.repository.findSummaryByMessengerPlatformAndMessengerUserIdAndMusicProviderPlatform(
+                MessengerPlatform.TELEGRAM.name(), "unknown", MusicProviderPlatform.SPOTIFY.name()).isPresent());
+    }
+
+    @Test
+    void onlyUsersSeenRecentlyHaveTheirExpiringTokenFound() {
+        final long now = System.currentTimeMillis();
+        final User seenUser = this.saveAuthorizedUser("1", new Date(now + 60_000));
+        this.saveAuthorizedUser("2", new Date(now + 60_000));
+        final User longAgoSeenUser = this.saveAuthorizedUser("3", new Date(now + 60_000));
+        this.repository.updateLastSeenAt(seenUser.getId(), new Date(now));
+        this.repository.updateLastSeenAt(longAgoSeenUser.getId(), new Date(now - 86_400_000));
+
+        final List<User> users = this.repository.findWithMusicProviderAccessTokenExpiringBefore(
+                MusicProviderPlatform.SPOTIFY.name(), new Date(now + 600_000), new Date(0), new UUID(0, 0),
+                new Date(now - 3_600_000), PageRequest.of(0, 10));
+
+        assertEquals(List.of(seenUser.getId()), users.stream().map(User::getId).toList());
+    }
+
+    @Test
+    void tokensAreNotUpdatedOnceRefreshedByAnotherInstance() {
+        final Date expiresAt = new Date(System.currentTimeMillis() + 60_000);
+        final User user = this.saveAuthorizedUser("4", expiresAt);
+
+        assertEquals(1, this.repository.updateMusicProviderAccessTokensIfExpiresAt(user.getId(), expiresAt,
+                "access-2", "refresh", new Date(expiresAt.getTime() + 3_600_000)));
+        // Read before the first refresh
+        assertEquals(0, this.repository.updateMusicProviderAccessTokensIfExpiresAt(user.getId(), expiresAt,
+                "access-3", "refresh", new Date(expiresAt.getTime() + 3_600_000)));
+    }
+
+    private User saveAuthorizedUser(final String messengerUserId, final Date accessTokenExpiresAt) {
+        final User user = new User();
+        user.setMessengerPlatform(MessengerPlatform.TELEGRAM.name());
+        user.setMessengerUserId(messengerUserId);
+        user.setMusicProviderPlatform(MusicProviderPlatform.SPOTIFY.name());
+        user.setMusicProviderAccessToken("access");
+        user.setMusicProviderRefreshToken("refresh");
+        user.setMusicProviderAccessTokenExpiresAt(accessTokenExpiresAt);
+        return this.repository.save(user);
+    }
+}
@@ -0,0 +1,108 @@
+package com.vasyagladush.spotifymessengerbot.services;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.vasyagladush.spotifymessengerbot.models.MessengerPlatform;
+import com.vasyagladush.spotifymessengerbot.models.MusicProviderPlatform;
+import com.vasyagladush.spotifymessengerbot.models.UserSummaryRow;
+
+/**
+ * In-memory cost of tracking messages to clear while an update is processed:
+ * adding a message to the update's unit of work (and taking it back out), and
+ * reading the list back with the pending changes applied as the number of
+ * tracked messages grows. Adding is a hash set insert whatever the number of
+ * messages, so it has no messages param. jsonRoundTrip is what adding a
+ * message cost when the ids were kept as a JSON array in the user row, for
+ * comparison.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MessagesToClearBenchmark {
+    private static final ObjectMapper objectMapper = new ObjectMapper();
+
+    @State(Scope.Thread)
+    public static class StoredMessages {
+        @Param({ "10", "100", "1000" })
+        public int messages;
+
+        private List<Integer> storedMessageIds;
+        private String storedMessageIdsJson;
+        private PendingMessagesToClear pendingMessagesToClear;
+
+        @Setup(Level.Trial)
+        public void setUp() throws JsonProcessingException {
+            this.storedMessageIds = new ArrayList<>(this.messages);
+            for (int i = 0; i < this.messages; ++i) {
+                this.storedMessageIds.add(i);
+            }
+            this.storedMessageIdsJson = objectMapper
+                    .writeValueAsString(this.storedMessageIds.stream().map(String::valueOf).toArray(String[]::new));
+
+            // A tenth of the messages were sent and a tenth cleared during the update
+            this.pendingMessagesToClear = new PendingMessagesToClear();
+            for (int i = 0; i < this.messages / 10; ++i) {
+                this.pendingMessagesToClear.add(this.messages + i);
+            }
+            this.pendingMessagesToClear.remove(this.storedMessageIds.subList(0, this.messages / 10));
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class OpenUnitOfWork {
+        private UserUnitOfWork unitOfWork;
+        private int nextMessageId;
+
+        // Never closed, so the user service isn't needed
+        @Setup(Level.Iteration)
+        public void setUp() {
+            this.unitOfWork = new UserUnitOfWork(null, new UserSummaryRow(UUID.randomUUID(),
+                    MessengerPlatform.TELEGRAM.name(), "42", MusicProviderPlatform.SPOTIFY.name(), true));
+            this.nextMessageId = 0;
+        }
+    }
+
+    // Takes the message back out, so the pending changes stay as small as an
+    // update's instead of growing by millions over an iteration
+    @Benchmark
+    public boolean addMessageToClear(final OpenUnitOfWork state) {
+        final Integer messageId = state.nextMessageId++;
+        state.unitOfWork.addMessageToClear(messageId);
+        return state.unitOfWork.removeMessagesToClear(List.of(messageId));
+    }
+
+    @Benchmark
+    public List<Integer> getMessagesToClear(final StoredMessages state) {
+        return state.pendingMessagesToClear.applyTo(state.storedMessageIds);
+    }
+
+    // As UserService.addMessageToClear did with getMessagesToClearAsArrayListOfString
+    @Benchmark
+    public String jsonRoundTrip(final StoredMessages state) throws JsonProcessingException {
+        final ArrayList<String> messageIds = new ArrayList<>(
+                Arrays.asList(objectMapper.readValue(state.storedMessageIdsJson, String[].class)));
+        messageIds.add(String.valueOf(state.messages));
+        return objectMapper.writeValueAsString(messageIds.toArray(new String[0]));
+    }
+}
@@ -0,0 +1,46 @@
+package com.vasyagladush.spotifymessengerbot.stubs;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * How a stub server imitates its real service: the latency of a response,
+ * spread evenly between half and one and a half times the mean, and the share
+ * of requests answered with an error.
+ */
+public class StubBehavior {
+    public static final StubBehavior NONE = new StubBehavior(0, 0);
+
+    private final long meanLatencyMilliseconds;
+    private final double errorRate;
+
+    public StubBehavior(long meanLatencyMilliseconds, double errorRate) {
+        this.meanLatencyMilliseconds = meanLatencyMilliseconds;
+        this.errorRate = errorRate;
+    }
+
+    /**
+     * Reads "{prefix}.latencyMs" and "{prefix}.errorRate" system properties,
+     * e.g. -Dloadtest.spotify.latencyMs=200
+     */
+    public static StubBehavior fromSystemProperties(final String prefix, final long defaultMeanLatencyMilliseconds,
+            final double defaultErrorRate) {
+        return new StubBehavior(Long.getLong(prefix + ".latencyMs", defaultMeanLatencyMilliseconds),
+                Double.parseDouble(System.getProperty(prefix + ".errorRate", String.valueOf(defaultErrorRate))));
+    }
+
+    public void simulateLatency() throws InterruptedException {
+        if (this.meanLatencyMilliseconds > 0) {
+            Thread.sleep(ThreadLocalRandom.current().nextLong(this.meanLatencyMilliseconds / 2,
+                    this.meanLatencyMilliseconds * 3 / 2 + 1));
+        }
+    }
+
+    public boolean shouldFail() {
+        return this.errorRate > 0 && ThreadLocalRandom.current().nextDouble() < this.errorRate;
+    }
+
+    @Override
+    public String toString() {
+        return "latency " + this.meanLatencyMilliseconds + " ms, error rate " + this.errorRate;
+    }
+}
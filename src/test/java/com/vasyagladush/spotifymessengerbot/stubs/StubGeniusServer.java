@@ -0,0 +1,126 @@
+package com.vasyagladush.spotifymessengerbot.stubs;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Local stand-in for the Genius search and lyrics pages. "/search?q=..."
+ * answers with at most one hit, whose "/songs/{id}" page is the plain text of
+ * generated lyrics. Every 20th query finds nothing and every 10th song has
+ * lyrics longer than a Telegram message, both decided by the query so that
+ * repeated lookups of a song agree. Errors of the {@link StubBehavior} are
+ * answered with 503.
+ */
+public class StubGeniusServer implements AutoCloseable {
+    private static final ObjectMapper objectMapper = new ObjectMapper();
+    private static final String VERSE_LINE = "Some words of the song that go on for a while, la la la";
+
+    private final HttpServer server;
+    private final ExecutorService executor = Executors.newCachedThreadPool();
+    private volatile StubBehavior behavior = StubBehavior.NONE;
+
+    public StubGeniusServer() throws IOException {
+        this.server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        this.server.createContext("/search", this::handleSearch);
+        this.server.createContext("/songs/", this::handleSong);
+        this.server.setExecutor(this.executor);
+        this.server.start();
+    }
+
+    public String getUrl() {
+        return "http://localhost:" + this.server.getAddress().getPort() + "/";
+    }
+
+    public void setBehavior(final StubBehavior behavior) {
+        this.behavior = behavior;
+    }
+
+    private void handleSearch(final HttpExchange exchange) throws IOException {
+        try (exchange) {
+            if (!this.simulate(exchange)) {
+                return;
+            }
+
+            final String rawQuery = exchange.getRequestURI().getRawQuery();
+            final String query = rawQuery == null || !rawQuery.startsWith("q=") ? ""
+                    : URLDecoder.decode(rawQuery.substring(2), StandardCharsets.UTF_8);
+            final int songId = Math.floorMod(query.hashCode(), 1_000_000);
+
+            final ObjectNode response = objectMapper.createObjectNode();
+            final var hits = response.putObject("response").putArray("hits");
+            if (songId % 20 != 0) {
+                hits.addObject().put("type", "song").putObject("result").put("id", songId)
+                        .put("title", query).put("url", this.getUrl() + "songs/" + songId);
+            }
+            this.respond(exchange, "application/json", objectMapper.writeValueAsBytes(response));
+        }
+    }
+
+    private void handleSong(final HttpExchange exchange) throws IOException {
+        try (exchange) {
+            if (!this.simulate(exchange)) {
+                return;
+            }
+
+            final String path = exchange.getRequestURI().getPath();
+            final int songId;
+            try {
+                songId = Integer.parseInt(path.substring(path.lastIndexOf('/') + 1));
+            } catch (NumberFormatException e) {
+                exchange.sendResponseHeaders(404, -1);
+                return;
+            }
+
+            final int verses = songId % 10 == 0 ? 20 : 5;
+            final StringBuilder lyrics = new StringBuilder();
+            for (int verse = 1; verse <= verses; ++verse) {
+                lyrics.append("[Verse ").append(verse).append("]\n");
+                for (int line = 0; line < 8; ++line) {
+                    lyrics.append(VERSE_LINE).append('\n');
+                }
+                lyrics.append('\n');
+            }
+            this.respond(exchange, "text/plain; charset=utf-8", lyrics.toString().getBytes(StandardCharsets.UTF_8));
+        }
+    }
+
+    // false when the request was answered with an error
+    private boolean simulate(final HttpExchange exchange) throws IOException {
+        try {
+            this.behavior.simulateLatency();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+        if (this.behavior.shouldFail()) {
+            exchange.sendResponseHeaders(503, -1);
+            return false;
+        }
+        return true;
+    }
+
+    private void respond(final HttpExchange exchange, final String contentType, final byte[] bytes)
+            throws IOException {
+        exchange.getResponseHeaders().set("Content-Type", contentType);
+        exchange.sendResponseHeaders(200, bytes.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(bytes);
+        }
+    }
+
+    @Override
+    public void close() {
+        this.server.stop(0);
+        this.executor.shutdownNow();
+    }
+}
@@ -0,0 +1,133 @@
+package com.vasyagladush.spotifymessengerbot.stubs;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Local stand-in for the Spotify accounts and Web API, serving the token
+ * endpoint and the currently playing track of every user from a fixed
+ * catalog of tracks. Some users are listening to nothing at any time; errors
+ * of the {@link StubBehavior} are answered with 503.
+ */
+public class StubSpotifyServer implements AutoCloseable {
+    private static final ObjectMapper objectMapper = new ObjectMapper();
+    private static final double NOTHING_PLAYING_RATE = 0.05;
+
+    private final HttpServer server;
+    private final ExecutorService executor = Executors.newCachedThreadPool();
+    private final int tracks;
+    private volatile StubBehavior behavior = StubBehavior.NONE;
+
+    public StubSpotifyServer(int tracks) throws IOException {
+        this.tracks = tracks;
+        this.server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        this.server.createContext("/api/token/", exchange -> this.handle(exchange, this::constructTokenResponse));
+        this.server.createContext("/v1/me/player/currently-playing",
+                exchange -> this.handle(exchange, this::constructCurrentlyPlayingResponse));
+        this.server.setExecutor(this.executor);
+        this.server.start();
+    }
+
+    // For SPOTIFY_API_URL
+    public String getApiUrl() {
+        return "http://localhost:" + this.server.getAddress().getPort() + "/";
+    }
+
+    // For SPOTIFY_TOKEN_URL
+    public String getTokenUrl() {
+        return this.getApiUrl() + "api/token/";
+    }
+
+    // For SPOTIFY_OAUTH_URL, which is only linked to
+    public String getOAuthUrl() {
+        return this.getApiUrl() + "authorize/";
+    }
+
+    public void setBehavior(final StubBehavior behavior) {
+        this.behavior = behavior;
+    }
+
+    private void handle(final HttpExchange exchange, final ResponseConstructor responseConstructor)
+            throws IOException {
+        try (exchange) {
+            exchange.getRequestBody().readAllBytes();
+            this.behavior.simulateLatency();
+            if (this.behavior.shouldFail()) {
+                this.respond(exchange, 503, objectMapper.createObjectNode().putObject("error").put("status", 503)
+                        .put("message", "Service unavailable"));
+                return;
+            }
+
+            final ObjectNode response = responseConstructor.construct();
+            if (response == null) {
+                exchange.sendResponseHeaders(204, -1);
+                return;
+            }
+            this.respond(exchange, 200, response);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private ObjectNode constructTokenResponse() {
+        return objectMapper.createObjectNode().put("access_token", UUID.randomUUID().toString())
+                .put("token_type", "Bearer").put("scope", "user-read-currently-playing").put("expires_in", 3600)
+                .put("refresh_token", UUID.randomUUID().toString());
+    }
+
+    // null when nothing is playing
+    private ObjectNode constructCurrentlyPlayingResponse() {
+        final ThreadLocalRandom random = ThreadLocalRandom.current();
+        if (random.nextDouble() < NOTHING_PLAYING_RATE) {
+            return null;
+        }
+
+        final int track = random.nextInt(this.tracks);
+        final long durationMs = 180_000 + track % 120 * 1000;
+        final ObjectNode response = objectMapper.createObjectNode().put("timestamp", System.currentTimeMillis())
+                .put("progress_ms", random.nextLong(durationMs)).put("is_playing", true)
+                .put("currently_playing_type", "track");
+        final ObjectNode item = response.putObject("item");
+        item.put("id", String.format("stubtrack%06d", track));
+        item.put("name", "Song " + track);
+        item.put("duration_ms", durationMs);
+        item.put("type", "track");
+        final ArrayNode artists = item.putArray("artists");
+        for (int i = 0; i <= track % 3; ++i) {
+            artists.addObject().put("id", "stubartist" + (track + i)).put("name", "Artist " + (track + i))
+                    .put("type", "artist");
+        }
+        return response;
+    }
+
+    private void respond(final HttpExchange exchange, final int status, final ObjectNode response)
+            throws IOException {
+        final byte[] bytes = objectMapper.writeValueAsBytes(response);
+        exchange.getResponseHeaders().set("Content-Type", "application/json");
+        exchange.sendResponseHeaders(status, bytes.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(bytes);
+        }
+    }
+
+    @Override
+    public void close() {
+        this.server.stop(0);
+        this.executor.shutdownNow();
+    }
+
+    private interface ResponseConstructor {
+        ObjectNode construct();
+    }
+}
@@ -0,0 +1,223 @@
+package com.vasyagladush.spotifymessengerbot.stubs;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Local stand-in for the Bot API, to run the bot without Telegram. Serves
+ * queued updates through getUpdates and accepts the methods the bot calls,
+ * recording them. Its URL is meant for TELEGRAM_API_URL. With a
+ * {@link StubBehavior}, other methods than getUpdates are delayed and some are
+ * rejected with 429 like Telegram does when its limits are exceeded.
+ */
+public class StubTelegramServer implements AutoCloseable {
+    private static final ObjectMapper objectMapper = new ObjectMapper();
+    // How long getUpdates waits for new updates at most, to keep tests short
+    private static final long MAX_LONG_POLL_MILLISECONDS = 200;
+
+    private final HttpServer server;
+    private final ExecutorService executor = Executors.newCachedThreadPool();
+    private final String token;
+
+    private final List<ObjectNode> updates = new ArrayList<>();
+    private int nextUpdateId = 1;
+    private final AtomicInteger nextMessageId = new AtomicInteger(1);
+
+    private final List<Integer> requestedOffsets = new CopyOnWriteArrayList<>();
+    private final List<Integer> requestedLimits = new CopyOnWriteArrayList<>();
+    private final List<Integer> returnedBatchSizes = new CopyOnWriteArrayList<>();
+    // Method name and parameters of every call other than getUpdates
+    private final List<Map.Entry<String, JsonNode>> calls = new CopyOnWriteArrayList<>();
+    private final Map<Long, List<String>> sentTextsByChat = new ConcurrentHashMap<>();
+
+    private volatile StubBehavior behavior = StubBehavior.NONE;
+
+    public StubTelegramServer(String token) throws IOException {
+        this.token = token;
+        this.server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        this.server.createContext("/bot" + token + "/", this::handle);
+        this.server.setExecutor(this.executor);
+        this.server.start();
+    }
+
+    public String getApiUrl() {
+        return "http://localhost:" + this.server.getAddress().getPort() + "/";
+    }
+
+    public String getToken() {
+        return this.token;
+    }
+
+    public void setBehavior(final StubBehavior behavior) {
+        this.behavior = behavior;
+    }
+
+    public synchronized void addMessageUpdate(final long chatId, final String text) {
+        final ObjectNode update = objectMapper.createObjectNode();
+        update.put("update_id", this.nextUpdateId++);
+        final ObjectNode message = update.putObject("message");
+        message.put("message_id", this.nextMessageId.getAndIncrement());
+        message.put("date", System.currentTimeMillis() / 1000);
+        message.put("text", text);
+        message.putObject("chat").put("id", chatId).put("type", "private");
+        message.putObject("from").put("id", chatId).put("is_bot", false).put("first_name", "User " + chatId);
+        this.updates.add(update);
+        this.notifyAll();
+    }
+
+    public List<Integer> getRequestedOffsets() {
+        return this.requestedOffsets;
+    }
+
+    public List<Integer> getRequestedLimits() {
+        return this.requestedLimits;
+    }
+
+    public List<Integer> getReturnedBatchSizes() {
+        return this.returnedBatchSizes;
+    }
+
+    public List<JsonNode> getCalls(final String method) {
+        return this.calls.stream().filter(call -> call.getKey().equalsIgnoreCase(method)).map(Map.Entry::getValue).toList();
+    }
+
+    private void handle(final HttpExchange exchange) throws IOException {
+        try (exchange) {
+            final String path = exchange.getRequestURI().getPath();
+            // Method names are case-insensitive, the library sends some in lower case
+            final String method = path.substring(path.lastIndexOf('/') + 1).toLowerCase(Locale.ROOT);
+            final byte[] body = exchange.getRequestBody().readAllBytes();
+            // setWebhook is sent as a multipart form, its parameters are not needed
+            final String contentType = exchange.getRequestHeaders().getFirst("Content-Type");
+            final JsonNode request = body.length == 0 || contentType == null
+                    || !contentType.startsWith("application/json") ? objectMapper.createObjectNode()
+                            : objectMapper.readTree(body);
+
+            if (!method.equals("getupdates")) {
+                this.behavior.simulateLatency();
+                if (this.behavior.shouldFail()) {
+                    final ObjectNode error = objectMapper.createObjectNode().put("ok", false).put("error_code", 429)
+                            .put("description", "Too Many Requests: retry after 1");
+                    error.putObject("parameters").put("retry_after", 1);
+                    this.respond(exchange, 429, error);
+                    return;
+                }
+            }
+
+            final JsonNode result;
+            switch (method) {
+                case "getupdates":
+                    result = this.getUpdates(request);
+                    break;
+                case "sendmessage":
+                    result = this.sendMessage(request);
+                    break;
+                case "setwebhook":
+                case "deletewebhook":
+                case "deletemessage":
+                case "deletemessages":
+                    result = objectMapper.getNodeFactory().booleanNode(true);
+                    break;
+                default:
+                    this.respond(exchange, 404, objectMapper.createObjectNode().put("ok", false)
+                            .put("error_code", 404).put("description", "Not Found: method not found"));
+                    return;
+            }
+            if (!method.equals("getupdates")) {
+                this.calls.add(Map.entry(method, request));
+            }
+
+            final ObjectNode response = objectMapper.createObjectNode().put("ok", true);
+            response.set("result", result);
+            this.respond(exchange, 200, response);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private synchronized JsonNode getUpdates(final JsonNode request) throws InterruptedException {
+        final int offset = request.path("offset").asInt(0);
+        final int limit = request.path("limit").asInt(100);
+        this.requestedOffsets.add(offset);
+        this.requestedLimits.add(limit);
+
+        // Like Telegram, asking for later updates confirms the earlier ones
+        this.updates.removeIf(update -> update.get("update_id").asInt() < offset);
+        if (this.updates.isEmpty() && request.path("timeout").asInt(0) > 0) {
+            this.wait(MAX_LONG_POLL_MILLISECONDS);
+        }
+
+        final ArrayNode result = objectMapper.createArrayNode();
+        for (final ObjectNode update : this.updates) {
+            if (result.size() == limit) {
+                break;
+            }
+            result.add(update);
+        }
+        if (!result.isEmpty()) {
+            this.returnedBatchSizes.add(result.size());
+        }
+        return result;
+    }
+
+    /**
+     * @return texts of the messages sent to the chat so far, in the order they
+     *         were sent
+     */
+    public List<String> getSentTexts(final long chatId) {
+        final List<String> sentTexts = this.sentTextsByChat.get(chatId);
+        if (sentTexts == null) {
+            return List.of();
+        }
+        synchronized (sentTexts) {
+            return new ArrayList<>(sentTexts);
+        }
+    }
+
+    private JsonNode sendMessage(final JsonNode request) {
+        final long chatId = request.path("chat_id").asLong();
+        final List<String> sentTexts = this.sentTextsByChat.computeIfAbsent(chatId, key -> new ArrayList<>());
+        synchronized (sentTexts) {
+            sentTexts.add(request.path("text").asText());
+        }
+
+        final ObjectNode message = objectMapper.createObjectNode();
+        message.put("message_id", this.nextMessageId.getAndIncrement());
+        message.put("date", System.currentTimeMillis() / 1000);
+        message.put("text", request.path("text").asText());
+        message.putObject("chat").put("id", chatId).put("type", "private");
+        return message;
+    }
+
+    private void respond(final HttpExchange exchange, final int status, final JsonNode response) throws IOException {
+        final byte[] bytes = objectMapper.writeValueAsBytes(response);
+        exchange.getResponseHeaders().set("Content-Type", "application/json");
+        exchange.sendResponseHeaders(status, bytes.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(bytes);
+        }
+    }
+
+    @Override
+    public void close() {
+        this.server.stop(0);
+        this.executor.shutdownNow();
+    }
+}